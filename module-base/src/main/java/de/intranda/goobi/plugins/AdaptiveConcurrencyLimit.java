@@ -0,0 +1,185 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limit of the downloads running at the same time against one host, which adapts itself to the host and is shared by all plugin runs of this JVM.
+ *
+ * The limit follows the additive increase, multiplicative decrease scheme. The downloads are evaluated in windows of about as many downloads as the
+ * limit allows. After every window, the limit grows by one if it was used up, the latency until the response headers stayed close to the lowest
+ * latency seen so far, and the throughput did not drop. It shrinks slightly if the latency rises, and to half on timeouts and on responses that
+ * signal an overloaded server. As the state is kept for the whole JVM, the next run starts with the limit the previous runs found.
+ * It is not persisted, so a restart begins with the initial limit again.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final Map<String, AdaptiveConcurrencyLimit> LIMITS = new ConcurrentHashMap<>();
+
+    // limit for a host that was never used before
+    private static final double INITIAL_LIMIT = 2;
+    // minimum number of downloads of a window
+    private static final int MIN_WINDOW = 4;
+    // factor of the lowest latency up to which the latency counts as stable
+    private static final double LATENCY_TOLERANCE = 1.5;
+    // factor by which the lowest latency rises per window while a single download is still too slow, so that a host that became slower for good
+    // is accepted after a while
+    private static final double LATENCY_DRIFT = 1.05;
+    // factors by which the limit is reduced on rising latency and on overload
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double OVERLOAD_BACKOFF = 0.5;
+
+    private double limit = INITIAL_LIMIT;
+    private int inFlight = 0;
+
+    // measurements of the current window
+    private long windowStart = System.nanoTime();
+    private int windowDownloads = 0;
+    private long windowBytes = 0;
+    private long windowLatency = 0;
+    private int windowLatencySamples = 0;
+    private int windowMaxInFlight = 0;
+    private boolean windowOverloaded = false;
+
+    // lowest average latency of a window in nanoseconds, 0 if unknown
+    private double baseLatency = 0;
+    // throughput of the previous window in bytes per second
+    private double lastThroughput = 0;
+    // true if the limit was raised after the previous window
+    private boolean raised = false;
+
+    /**
+     * get the limit of a host
+     *
+     * @param host name of the host
+     * @return the shared limit of this host
+     */
+    public static AdaptiveConcurrencyLimit forHost(String host) {
+        return LIMITS.computeIfAbsent(String.valueOf(host).toLowerCase(Locale.ROOT), h -> new AdaptiveConcurrencyLimit());
+    }
+
+    /**
+     * wait until the limit allows another download
+     *
+     * @param max upper bound of the limit
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized void acquire(int max) throws InterruptedException {
+        while (inFlight >= getLimit(max)) {
+            wait();
+        }
+        inFlight++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+    }
+
+    /**
+     * end a download that was started with {@link #acquire(int)}
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * report a successful download
+     *
+     * @param latency nanoseconds until the response headers arrived, -1 if unknown
+     * @param bytes number of bytes received
+     * @param max upper bound of the limit
+     */
+    public synchronized void recordSuccess(long latency, long bytes, int max) {
+        windowDownloads++;
+        windowBytes += bytes;
+        if (latency >= 0) {
+            windowLatency += latency;
+            windowLatencySamples++;
+        }
+        if (windowDownloads >= Math.max(MIN_WINDOW, (int) limit)) {
+            evaluateWindow(max);
+        }
+    }
+
+    /**
+     * report a timeout or a response that signals an overloaded server, which halves the limit once per window
+     */
+    public synchronized void recordOverload() {
+        if (!windowOverloaded) {
+            limit = Math.max(1, limit * OVERLOAD_BACKOFF);
+            raised = false;
+            resetWindow();
+            windowOverloaded = true;
+        }
+    }
+
+    /**
+     * get the current limit
+     *
+     * @param max upper bound of the limit
+     * @return the number of downloads that may run at the same time
+     */
+    public synchronized int getLimit(int max) {
+        return Math.max(1, Math.min((int) limit, max));
+    }
+
+    private void evaluateWindow(int max) {
+        double seconds = Math.max(System.nanoTime() - windowStart, 1) / 1e9;
+        double throughput = windowBytes / seconds;
+        double latency = windowLatencySamples > 0 ? (double) windowLatency / windowLatencySamples : 0;
+
+        if (baseLatency > 0 && latency > baseLatency * LATENCY_TOLERANCE) {
+            // the host answers slower than it can, it is probably queueing the requests
+            limit = Math.max(1, limit * LATENCY_BACKOFF);
+            raised = false;
+        } else if (raised && throughput < lastThroughput) {
+            // the additional download did not pay off
+            limit = Math.max(1, limit - 1);
+            raised = false;
+        } else if (windowMaxInFlight >= (int) limit && limit < max) {
+            limit = Math.min(max, limit + 1);
+            raised = true;
+        } else {
+            raised = false;
+        }
+        // never stay above the configured maximum, e.g. after it was lowered
+        limit = Math.min(limit, Math.max(1, max));
+
+        if (latency > 0 && (baseLatency == 0 || latency < baseLatency)) {
+            baseLatency = latency;
+        } else if (latency > baseLatency * LATENCY_TOLERANCE && limit <= 1) {
+            baseLatency *= LATENCY_DRIFT;
+        }
+        lastThroughput = throughput;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowStart = System.nanoTime();
+        windowDownloads = 0;
+        windowBytes = 0;
+        windowLatency = 0;
+        windowLatencySamples = 0;
+        windowMaxInFlight = inFlight;
+        windowOverloaded = false;
+    }
+}
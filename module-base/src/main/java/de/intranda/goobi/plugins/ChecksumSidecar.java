@@ -0,0 +1,203 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Sidecar file with the MD5 and SHA-256 checksums of all images in the media folder of a process. The checksums are computed while the images are
+ * downloaded or copied, so that later steps do not need to read the images again to get fixity values.
+ *
+ * The sidecar is stored as a tab separated text file in the working folder of the plugin inside of the process folder.
+ */
+@Log4j2
+public class ChecksumSidecar {
+
+    private static final String HEADER = "file\tsize\tmd5\tsha256";
+
+    private final Path file;
+    // sorted by file name, so that the sidecar is easy to compare
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private ChecksumSidecar(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * read the sidecar file, a missing or unreadable file results in an empty sidecar
+     *
+     * @param file path of the sidecar file
+     * @return the sidecar
+     */
+    public static ChecksumSidecar load(Path file) {
+        ChecksumSidecar sidecar = new ChecksumSidecar(file);
+        if (!Files.isRegularFile(file)) {
+            return sidecar;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 4 || HEADER.equals(line)) {
+                    continue;
+                }
+                try {
+                    sidecar.entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), fields[2], fields[3]));
+                } catch (NumberFormatException e) {
+                    // the checksums of this file are computed again when it is imported the next time
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read the checksum file " + file + ", it will be written again.", e);
+        }
+        return sidecar;
+    }
+
+    /**
+     * add or replace the checksums of a file
+     *
+     * @param entry the new entry
+     */
+    public synchronized void put(Entry entry) {
+        entries.put(entry.getFileName(), entry);
+    }
+
+    /**
+     * write the sidecar, entries whose files do not exist in the media folder anymore are left out
+     *
+     * @param mediaFolder media folder of the process
+     * @throws IOException
+     */
+    public synchronized void save(Path mediaFolder) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                String fileName = entry.getFileName();
+                if (!Files.exists(mediaFolder.resolve(fileName)) || fileName.indexOf('\t') >= 0 || fileName.indexOf('\n') >= 0) {
+                    continue;
+                }
+                writer.write(String.join("\t", fileName, String.valueOf(entry.getSize()), entry.getMd5(), entry.getSha256()));
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * create new digests for all checksums of the sidecar
+     *
+     * @return the MD5 and the SHA-256 digest
+     */
+    public static MessageDigest[] newDigests() {
+        try {
+            return new MessageDigest[] { MessageDigest.getInstance("MD5"), MessageDigest.getInstance("SHA-256") };
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support MD5 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * create the entry of a file from digests that were updated with its complete content
+     *
+     * @param file the file in the media folder
+     * @param digests the digests as returned by {@link #newDigests()}
+     * @return the new entry
+     * @throws IOException
+     */
+    public static Entry toEntry(Path file, MessageDigest[] digests) throws IOException {
+        return new Entry(file.getFileName().toString(), Files.size(file), HexFormat.of().formatHex(digests[0].digest()),
+                HexFormat.of().formatHex(digests[1].digest()));
+    }
+
+    /**
+     * read a file to compute its checksums, for files that were not copied byte by byte, e.g. links or moved files
+     *
+     * @param file the file in the media folder
+     * @return the new entry
+     * @throws IOException
+     */
+    public static Entry compute(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return compute(in, file.getFileName().toString());
+        }
+    }
+
+    /**
+     * read a stream to compute its checksums, for files that are not readable as local files, e.g. in an S3 bucket
+     *
+     * @param in the content of the file in the media folder
+     * @param fileName name of the file in the media folder
+     * @return the new entry
+     * @throws IOException
+     */
+    public static Entry compute(InputStream in, String fileName) throws IOException {
+        MessageDigest[] digests = newDigests();
+        byte[] buffer = new byte[1 << 16];
+        long size = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            for (MessageDigest digest : digests) {
+                digest.update(buffer, 0, read);
+            }
+            size += read;
+        }
+        return new Entry(fileName, size, HexFormat.of().formatHex(digests[0].digest()), HexFormat.of().formatHex(digests[1].digest()));
+    }
+
+    /**
+     * the checksums of one file
+     */
+    public static class Entry {
+        @Getter
+        private final String fileName;
+        @Getter
+        private final long size;
+        @Getter
+        private final String md5;
+        @Getter
+        private final String sha256;
+
+        public Entry(String fileName, long size, String md5, String sha256) {
+            this.fileName = fileName;
+            this.size = size;
+            this.md5 = md5;
+            this.sha256 = sha256;
+        }
+    }
+}
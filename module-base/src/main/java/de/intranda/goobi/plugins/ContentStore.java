@@ -0,0 +1,272 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Content-addressed store for imported images. Every image is kept once in the store under its SHA-256 checksum, and the media folders of the
+ * processes get reflinks to it, i.e. copy-on-write clones, or hard links if the store is configured so. If a link cannot be created, e.g. because
+ * the media folder is on another file system or does not support reflinks, the image is copied.
+ *
+ * Hard links share one inode between the store and all processes using the image. Anything that writes into such a file in place, e.g. a tool that
+ * edits the image or changes its permissions, changes it for all of these processes and the store. Reflinks do not have this problem.
+ *
+ * Every object has a references file next to it that lists the processes and files linking to it. An object is only removed from the store when its
+ * last reference was released and no other hard link to it is left. Since hard links share the data and not the path, moving or deleting one process
+ * never affects the images of other processes. Checking, linking and counting the references of an object happen under one lock, which is held inside
+ * of this JVM and as a file lock on a lock file per subfolder, so that other nodes sharing the store are excluded as well.
+ *
+ * References are only released by this plugin. When a process is deleted in Goobi, its references stay until the references file of the object is
+ * written again, which drops all references whose file does not exist anymore. Objects that are never imported again are not removed.
+ */
+@Log4j2
+public class ContentStore {
+
+    private static final String LOCK_FILE_NAME = ".lock";
+
+    // locks inside of this JVM, one per subfolder of the store, other JVMs are excluded by file locks on the lock file of the subfolder
+    private static final Object[] LOCKS = new Object[256];
+
+    static {
+        for (int i = 0; i < LOCKS.length; ++i) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final Path root;
+    // reflink | hardlink
+    private final String mode;
+
+    /**
+     * @param root folder of the store
+     * @param mode reflink|hardlink, how the objects are linked into the media folders
+     */
+    public ContentStore(Path root, String mode) {
+        this.root = root;
+        this.mode = mode;
+    }
+
+    /**
+     * @param folder folder of the store as it is configured
+     * @param mode reflink|hardlink, how the objects are linked into the media folders
+     * @return the store, or null if no folder is configured
+     */
+    public static ContentStore forFolder(String folder, String mode) {
+        return folder == null || folder.isBlank() ? null : new ContentStore(Paths.get(folder), mode);
+    }
+
+    /**
+     * put a file into the store and link it to the target
+     *
+     * @param source the file to be imported
+     * @param target path of the file in the media folder of the process
+     * @param processId id of the process the target belongs to
+     * @return the checksum of the file, which identifies it in the store
+     * @throws IOException
+     */
+    public String store(Path source, Path target, int processId) throws IOException {
+        String hash = hash(source);
+        Path object = getObjectPath(hash);
+        String reference = processId + "\t" + target.toAbsolutePath().normalize();
+
+        updateReferences(hash, references -> {
+            if (!Files.exists(object)) {
+                Path temporary = Files.createTempFile(object.getParent(), ".", ".tmp");
+                try {
+                    Files.copy(source, temporary, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(temporary, object, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+            if (link(object, target)) {
+                references.remove(reference);
+                references.add(reference);
+            } else {
+                log.debug("Cannot link " + target + " to the content store, copying it instead.");
+                LocalFileTransfer.copy(object, target);
+            }
+        });
+        return hash;
+    }
+
+    /**
+     * release the reference of a process file, the object is removed if it is not used anymore
+     *
+     * @param hash checksum of the object
+     * @param target path of the file in the media folder of the process
+     * @throws IOException
+     */
+    public void release(String hash, Path target) throws IOException {
+        String targetPath = "\t" + target.toAbsolutePath().normalize();
+        if (Files.exists(getReferencesPath(hash))) {
+            updateReferences(hash, references -> references.removeIf(reference -> reference.endsWith(targetPath)));
+        }
+    }
+
+    /**
+     * read, change and write the references of an object under the lock of its subfolder. References whose file does not exist anymore are dropped,
+     * and the object is removed if no reference and no other hard link to it is left.
+     */
+    private void updateReferences(String hash, ReferencesUpdate update) throws IOException {
+        Path object = getObjectPath(hash);
+        Path references = getReferencesPath(hash);
+        Files.createDirectories(object.getParent());
+        synchronized (LOCKS[Integer.parseInt(hash.substring(0, 2), 16)]) {
+            try (FileChannel channel = FileChannel.open(root.resolve(hash.substring(0, 2)).resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+                List<String> lines = new ArrayList<>();
+                if (Files.exists(references)) {
+                    for (String line : Files.readAllLines(references, StandardCharsets.UTF_8)) {
+                        int index = line.indexOf('\t');
+                        if (index > 0 && Files.exists(Paths.get(line.substring(index + 1)))) {
+                            lines.add(line);
+                        }
+                    }
+                }
+                update.apply(lines);
+
+                if (lines.isEmpty() && getLinkCount(object) <= 1) {
+                    Files.deleteIfExists(object);
+                    Files.deleteIfExists(references);
+                } else {
+                    Path temporary = references.resolveSibling(references.getFileName() + ".tmp");
+                    Files.write(temporary, lines, StandardCharsets.UTF_8);
+                    Files.move(temporary, references, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private boolean link(Path object, Path target) throws IOException {
+        if ("hardlink".equals(mode)) {
+            return LocalFileTransfer.hardlink(object, target);
+        }
+        return LocalFileTransfer.reflink(object, target);
+    }
+
+    /**
+     * get the number of hard links of the object
+     *
+     * @return the number of links, or 1 if the file system does not tell
+     */
+    private static int getLinkCount(Path object) {
+        try {
+            return (Integer) Files.getAttribute(object, "unix:nlink");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    private Path getObjectPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Path getReferencesPath(String hash) {
+        Path object = getObjectPath(hash);
+        return object.resolveSibling(hash + ".refs");
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * read the list of store objects that are linked into the media folder of a process
+     *
+     * @param file path of the list
+     * @return a Map from file name to checksum
+     */
+    public static Map<String, String> readLinks(Path file) {
+        Map<String, String> links = new LinkedHashMap<>();
+        if (Files.isRegularFile(file)) {
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    int index = line.indexOf('\t');
+                    if (index > 0) {
+                        links.put(line.substring(0, index), line.substring(index + 1));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot read the list of content store links " + file, e);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * write the list of store objects that are linked into the media folder of a process
+     *
+     * @param file path of the list
+     * @param links a Map from file name to checksum
+     * @throws IOException
+     */
+    public static void writeLinks(Path file, Map<String, String> links) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            synchronized (links) {
+                for (Map.Entry<String, String> link : links.entrySet()) {
+                    writer.write(link.getKey() + "\t" + link.getValue());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @FunctionalInterface
+    private interface ReferencesUpdate {
+        void apply(List<String> references) throws IOException;
+    }
+}
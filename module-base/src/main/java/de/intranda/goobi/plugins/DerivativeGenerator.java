@@ -0,0 +1,285 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.io.FilenameUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Creates derivatives like thumbnails or web images of the imported images on its own thread pool, right after each image was written to the media
+ * folder, while it is still in the page cache of the operating system. Every image is decoded only once for all configured derivatives, and if even
+ * the largest derivative is much smaller than the image, only every n-th pixel is decoded.
+ *
+ * The images are read with ImageIO, so formats without an ImageIO reader like JPEG 2000 are skipped with a warning.
+ */
+@Log4j2
+public class DerivativeGenerator {
+
+    private final List<Derivative> derivatives;
+    private final Path imagesDirectory;
+    private final ExecutorService executor;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param derivatives the derivatives to be created for each image
+     * @param imagesDirectory images folder of the process, the derivative folders are resolved against it
+     * @param threads number of images that are processed at the same time
+     * @param processId id of the process, used in the thread names
+     */
+    public DerivativeGenerator(List<Derivative> derivatives, Path imagesDirectory, int threads, int processId) {
+        this.derivatives = derivatives;
+        this.imagesDirectory = imagesDirectory;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fetch-images-derivatives-" + processId + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * read the derivative elements of the plugin configuration
+     *
+     * @param config configuration block of the plugin
+     * @return the configured derivatives, empty if there are none
+     */
+    public static List<Derivative> readConfiguration(SubnodeConfiguration config) {
+        List<Derivative> result = new ArrayList<>();
+        List<HierarchicalConfiguration> elements = config.configurationsAt("derivatives/derivative");
+        if (elements == null) {
+            return result;
+        }
+        for (HierarchicalConfiguration element : elements) {
+            String folder = element.getString("@folder");
+            if (folder == null || folder.isBlank()) {
+                log.warn("Ignoring a derivative without folder.");
+                continue;
+            }
+            String format = element.getString("@format", "jpg").toLowerCase(Locale.ROOT);
+            result.add(new Derivative(folder, Math.max(1, element.getInt("@size", 800)), element.getFloat("@quality", 0.8f),
+                    "jpeg".equals(format) ? "jpg" : format));
+        }
+        return result;
+    }
+
+    /**
+     * queue the creation of all derivatives of an image
+     *
+     * @param image the image in the media folder
+     */
+    public synchronized void submit(Path image) {
+        pending.add(executor.submit(() -> {
+            try {
+                generate(image);
+                created.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                log.warn("Cannot create the derivatives of " + image + ": " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * delete the derivatives of an image, e.g. because the image was removed or replaced by a file with another name
+     *
+     * @param imageName file name of the image in the media folder
+     */
+    public void delete(String imageName) {
+        String baseName = FilenameUtils.getBaseName(imageName);
+        for (Derivative derivative : derivatives) {
+            Path file = imagesDirectory.resolve(derivative.getFolder()).resolve(baseName + "." + derivative.getFormat());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Cannot delete the derivative " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * wait until all queued derivatives are created and stop the thread pool, every image whose derivatives failed unexpectedly is counted
+     */
+    public void finish() {
+        List<Future<?>> all;
+        synchronized (this) {
+            all = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            for (Future<?> future : all) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                    log.error("Unexpected error while creating derivatives", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * get a summary of the created derivatives
+     *
+     * @return the summary, or null if no image was processed
+     */
+    public String getSummary() {
+        if (created.get() == 0 && failed.get() == 0) {
+            return null;
+        }
+        return "Derivatives created for " + created.get() + " images, failed for " + failed.get() + " images.";
+    }
+
+    private void generate(Path image) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("no ImageIO reader for this format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int largestDerivative = derivatives.stream().mapToInt(Derivative::getSize).max().orElse(longestSide);
+                // decode at least twice the largest derivative size to keep the quality of the scaling
+                int subsampling = Math.max(1, longestSide / (2 * largestDerivative));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage source = reader.read(0, param);
+
+                String baseName = FilenameUtils.getBaseName(image.getFileName().toString());
+                for (Derivative derivative : derivatives) {
+                    Path folder = imagesDirectory.resolve(derivative.getFolder());
+                    Files.createDirectories(folder);
+                    write(scale(source, derivative), folder.resolve(baseName + "." + derivative.getFormat()), derivative);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, Derivative derivative) {
+        double factor = Math.min(1d, (double) derivative.getSize() / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+        boolean alpha = !"jpg".equals(derivative.getFormat()) && source.getColorModel().hasAlpha();
+        BufferedImage result = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (!alpha) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    private static void write(BufferedImage image, Path target, Derivative derivative) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(derivative.getFormat());
+        if (!writers.hasNext()) {
+            throw new IOException("no ImageIO writer for the format " + derivative.getFormat());
+        }
+        ImageWriter writer = writers.next();
+        Path temporary = target.resolveSibling("." + target.getFileName() + ".tmp");
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(temporary.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed() && "jpg".equals(derivative.getFormat())) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.max(0f, Math.min(1f, derivative.getQuality())));
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        } finally {
+            writer.dispose();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * one configured derivative
+     */
+    public static class Derivative {
+        // folder inside of the images folder of the process
+        @Getter
+        private final String folder;
+        // length of the longest side in pixels, images are never scaled up
+        @Getter
+        private final int size;
+        // JPEG quality between 0 and 1
+        @Getter
+        private final float quality;
+        // file extension of the derivative, e.g. jpg or png
+        @Getter
+        private final String format;
+
+        public Derivative(String folder, int size, float quality, String format) {
+            this.folder = folder;
+            this.size = size;
+            this.quality = quality;
+            this.format = format;
+        }
+    }
+}
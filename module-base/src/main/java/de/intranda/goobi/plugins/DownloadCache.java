@@ -0,0 +1,392 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Node-wide cache of images downloaded via URL, so that an image whose URL shows up again in another process or in a re-run is not downloaded again.
+ * The images are identified by their normalized URL and kept in a folder together with a small entry file holding the URL, ETag, Last-Modified,
+ * size and checksums.
+ *
+ * A cached image is only served without asking the server again for a limited time after it was last validated. After that, the caller sends a
+ * conditional request with the stored ETag and Last-Modified and reports the result with {@link #validated(String)} or {@link #put}. Hard links
+ * are not used, since the image in the media folder would share its file with the cache and changes made to it in place would alter the cache.
+ *
+ * The total size of the cache is limited. If a new image exceeds the limit, the images that were not used for the longest time are removed. The time
+ * of the last use is kept as the modification time of the entry files, so that the order survives a restart. Hits, misses and evictions are counted
+ * since the start of the application.
+ */
+@Log4j2
+public class DownloadCache {
+
+    private static final String ENTRY_FILE_EXTENSION = ".entry";
+
+    // all caches, one per folder
+    private static final Map<Path, DownloadCache> CACHES = new ConcurrentHashMap<>();
+    // locks for writing the objects inside of this JVM
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; ++i) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final Path root;
+    // size limit in bytes
+    private volatile long maxSize;
+    // copy | reflink
+    private volatile String mode;
+    // time in milliseconds an image is served without validating it against the server
+    private volatile long maxAge;
+
+    // key -> entry, in the order of their last use
+    private final LinkedHashMap<String, DownloadManifest.Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // key -> time of the last validation against the server
+    private final Map<String, Long> validations = new HashMap<>();
+    // bytes of all entries
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private DownloadCache(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * get the cache of a folder, the size limit and the mode of an existing cache are changed to the given values
+     *
+     * @param folder folder of the cache as it is configured
+     * @param maxSize size limit in bytes
+     * @param mode copy|reflink, how images are taken into the cache and served from it, hardlink is replaced by copy
+     * @param maxAge time in milliseconds an image is served without validating it against the server
+     * @return the cache, or null if no folder is configured
+     */
+    public static DownloadCache forFolder(String folder, long maxSize, String mode, long maxAge) {
+        if (folder == null || folder.isBlank()) {
+            return null;
+        }
+        DownloadCache cache = CACHES.computeIfAbsent(Paths.get(folder).toAbsolutePath().normalize(), path -> {
+            DownloadCache created = new DownloadCache(path);
+            created.load();
+            return created;
+        });
+        if ("hardlink".equals(mode)) {
+            log.warn("The download cache does not support hard links, since they share the images with the cache. The images are copied instead.");
+            mode = "copy";
+        }
+        cache.maxSize = maxSize;
+        cache.mode = mode;
+        cache.maxAge = maxAge;
+        return cache;
+    }
+
+    /**
+     * put a cached image into the media folder of a process
+     *
+     * @param url the URL as it is given in the metadata
+     * @param target path of the image in the media folder
+     * @return the manifest entry of the image with the name of the target, or null if the URL is not cached
+     */
+    public DownloadManifest.Entry get(String url, Path target) {
+        String key = getKey(url);
+        DownloadManifest.Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        try {
+            transfer(getObjectPath(key), target);
+            Files.setLastModifiedTime(getEntryPath(key), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // e.g. removed by another node that shares the folder
+            log.debug("Cannot take " + url + " from the download cache: " + e.getMessage());
+            synchronized (this) {
+                if (entries.remove(key, cached)) {
+                    validations.remove(key);
+                    size -= cached.getSize();
+                }
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new DownloadManifest.Entry(url, target.getFileName().toString(), cached.getEtag(), cached.getLastModified(), cached.getSize(),
+                cached.getSha256(), cached.getMd5());
+    }
+
+    /**
+     * check if a cached image was validated against the server recently enough to be used without asking the server again
+     *
+     * @param url the URL as it is given in the metadata
+     * @return true if the image was validated within the maximum age
+     */
+    public synchronized boolean isFresh(String url) {
+        Long validated = validations.get(getKey(url));
+        return validated != null && System.currentTimeMillis() - validated < maxAge;
+    }
+
+    /**
+     * record that the server confirmed a cached image with a conditional request
+     *
+     * @param url the URL as it is given in the metadata
+     */
+    public void validated(String url) {
+        String key = getKey(url);
+        long now = System.currentTimeMillis();
+        DownloadManifest.Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached == null) {
+                return;
+            }
+            validations.put(key, now);
+        }
+        try {
+            synchronized (LOCKS[Math.floorMod(key.hashCode(), LOCKS.length)]) {
+                writeEntry(key, cached, now);
+            }
+        } catch (IOException e) {
+            log.debug("Cannot store the validation of " + url + " in the download cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * add a downloaded image to the cache, the images used least recently are removed if the cache gets too large
+     *
+     * @param entry manifest entry of the download
+     * @param file the downloaded image
+     */
+    public void put(DownloadManifest.Entry entry, Path file) {
+        String key = getKey(entry.getUrl());
+        synchronized (this) {
+            DownloadManifest.Entry cached = entries.get(key);
+            if (cached != null && cached.getSha256() != null && cached.getSha256().equals(entry.getSha256())) {
+                validations.put(key, System.currentTimeMillis());
+                return;
+            }
+        }
+        if (entry.getSize() > maxSize) {
+            return;
+        }
+
+        DownloadManifest.Entry cached = new DownloadManifest.Entry(entry.getUrl(), key, entry.getEtag(), entry.getLastModified(), entry.getSize(),
+                entry.getSha256(), entry.getMd5());
+        long now = System.currentTimeMillis();
+        try {
+            synchronized (LOCKS[Math.floorMod(key.hashCode(), LOCKS.length)]) {
+                Path object = getObjectPath(key);
+                Files.createDirectories(object.getParent());
+                // the image is written under a temporary name and renamed, so that it is never read incompletely
+                Path temporary = Files.createTempFile(object.getParent(), ".", ".tmp");
+                try {
+                    transfer(file, temporary);
+                    Files.move(temporary, object, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+                writeEntry(key, cached, now);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot add " + entry.getUrl() + " to the download cache: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            DownloadManifest.Entry previous = entries.put(key, cached);
+            validations.put(key, now);
+            size += cached.getSize() - (previous == null ? 0 : previous.getSize());
+            evict();
+        }
+    }
+
+    /**
+     * get the statistics of the cache since the start of the application
+     *
+     * @return a one line summary
+     */
+    public synchronized String getSummary() {
+        return String.format(Locale.ROOT, "Download cache: %d images, %.1f of %.1f MB, %d hits, %d misses, %d evictions since the start",
+                entries.size(), size / 1e6, maxSize / 1e6, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * remove the images used least recently until the cache fits into its size limit
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, DownloadManifest.Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, DownloadManifest.Entry> eldest = iterator.next();
+            iterator.remove();
+            validations.remove(eldest.getKey());
+            size -= eldest.getValue().getSize();
+            evictions.increment();
+            try {
+                Files.deleteIfExists(getEntryPath(eldest.getKey()));
+                Files.deleteIfExists(getObjectPath(eldest.getKey()));
+            } catch (IOException e) {
+                log.warn("Cannot remove " + eldest.getValue().getUrl() + " from the download cache: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * copy or clone a file according to the mode of the cache
+     */
+    private void transfer(Path source, Path target) throws IOException {
+        if ("reflink".equals(mode) && LocalFileTransfer.reflink(source, target)) {
+            return;
+        }
+        LocalFileTransfer.copy(source, target);
+    }
+
+    /**
+     * read all entries of the cache folder, ordered by the time of their last use
+     */
+    private void load() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(root, 2, FileVisitOption.FOLLOW_LINKS)) {
+            stream.filter(file -> file.getFileName().toString().endsWith(ENTRY_FILE_EXTENSION)).forEach(files::add);
+        } catch (IOException e) {
+            log.warn("Cannot read the download cache in " + root + ", it starts empty.", e);
+            return;
+        }
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        for (Path file : files) {
+            String key = file.getFileName().toString().replace(ENTRY_FILE_EXTENSION, "");
+            try {
+                String[] fields = Files.readString(file, StandardCharsets.UTF_8).split("\t", -1);
+                if (fields.length < 7 || !Files.isRegularFile(getObjectPath(key))) {
+                    continue;
+                }
+                entries.put(key, new DownloadManifest.Entry(fields[0], key, emptyToNull(fields[1]), emptyToNull(fields[2]), Long.parseLong(fields[3]),
+                        emptyToNull(fields[4]), emptyToNull(fields[5])));
+                validations.put(key, Long.parseLong(fields[6]));
+                size += Long.parseLong(fields[3]);
+            } catch (IOException | NumberFormatException e) {
+                log.warn("Cannot read the download cache entry " + file, e);
+            }
+        }
+        log.info("Loaded " + entries.size() + " images from the download cache in " + root);
+    }
+
+    private void writeEntry(String key, DownloadManifest.Entry entry, long validated) throws IOException {
+        Path file = getEntryPath(key);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        String line = String.join("\t", entry.getUrl(), nullToEmpty(entry.getEtag()), nullToEmpty(entry.getLastModified()),
+                String.valueOf(entry.getSize()), nullToEmpty(entry.getSha256()), nullToEmpty(entry.getMd5()),
+                String.valueOf(validated));
+        Files.writeString(temporary, line, StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path getObjectPath(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private Path getEntryPath(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key + ENTRY_FILE_EXTENSION);
+    }
+
+    /**
+     * get the key of a URL, which is the SHA-256 checksum of its normalized form
+     */
+    static String getKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalize(url).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * normalize a URL: scheme and host in lower case, without default port, dot segments and fragment
+     */
+    static String normalize(String url) {
+        try {
+            URI uri = new URI(url.trim()).normalize();
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return url.trim();
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            StringBuilder normalized = new StringBuilder(scheme).append("://");
+            if (uri.getRawUserInfo() != null) {
+                normalized.append(uri.getRawUserInfo()).append('@');
+            }
+            normalized.append(uri.getHost() == null ? uri.getRawAuthority() : uri.getHost().toLowerCase(Locale.ROOT));
+            if (uri.getHost() != null && port != -1) {
+                normalized.append(':').append(port);
+            }
+            normalized.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+            if (uri.getRawQuery() != null) {
+                normalized.append('?').append(uri.getRawQuery());
+            }
+            return normalized.toString();
+        } catch (URISyntaxException e) {
+            return url.trim();
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,367 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits of the requests and bytes per second of all downloads of this JVM, for all hosts together and for every single host. The limits are
+ * token buckets that hold the tokens of one second at most, so that a short burst is possible after a pause. A download that exceeds a limit waits
+ * until the bucket has enough tokens again, either by sleeping or, for data that arrives asynchronously, by requesting more data only after the
+ * wait.
+ *
+ * The limits are shared by all plugin runs and take the values of the configuration that was read last. The current usage is available via JMX as
+ * {@link DownloadGovernorMXBean}.
+ */
+@Log4j2
+public final class DownloadGovernor {
+
+    // number of seconds over which the current usage is averaged
+    private static final int USAGE_SECONDS = 5;
+
+    private static final TokenBucket REQUESTS = new TokenBucket();
+    private static final TokenBucket BYTES = new TokenBucket();
+    private static final Map<String, TokenBucket> HOST_REQUESTS = new ConcurrentHashMap<>();
+    private static final Map<String, TokenBucket> HOST_BYTES = new ConcurrentHashMap<>();
+
+    // nanoseconds all downloads waited for the limits
+    private static final LongAdder WAIT_NANOS = new LongAdder();
+
+    private static volatile double hostRequestRate;
+    private static volatile double hostByteRate;
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new Usage(), new ObjectName("de.intranda.goobi.plugins:type=FetchImagesFromMetadata,name=DownloadGovernor"));
+        } catch (JMException | RuntimeException e) {
+            // e.g. already registered by another class loader after a redeployment
+            log.warn("Cannot register the download limits of the plugin via JMX: " + e.getMessage());
+        }
+    }
+
+    private DownloadGovernor() {
+    }
+
+    /**
+     * read the limits from the download element of the plugin configuration, 0 means no limit
+     *
+     * @param config configuration block of the plugin
+     */
+    public static void configure(SubnodeConfiguration config) {
+        REQUESTS.setRate(Math.max(0, config.getDouble("download/@maxRequestsPerSecond", 0)));
+        BYTES.setRate(Math.max(0, config.getDouble("download/@maxBandwidth", 0)) * 1024);
+        hostRequestRate = Math.max(0, config.getDouble("download/@maxRequestsPerSecondPerHost", 0));
+        hostByteRate = Math.max(0, config.getDouble("download/@maxBandwidthPerHost", 0)) * 1024;
+        for (TokenBucket bucket : HOST_REQUESTS.values()) {
+            bucket.setRate(hostRequestRate);
+        }
+        for (TokenBucket bucket : HOST_BYTES.values()) {
+            bucket.setRate(hostByteRate);
+        }
+    }
+
+    /**
+     * wait until a request to the host may be sent
+     *
+     * @param host name of the host
+     * @return the nanoseconds spent waiting
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public static long acquireRequest(String host) throws InterruptedIOException {
+        return acquire(REQUESTS, HOST_REQUESTS.computeIfAbsent(normalize(host), h -> new TokenBucket(hostRequestRate)), 1);
+    }
+
+    /**
+     * count received bytes and wait until the bandwidth allows to receive more
+     *
+     * @param host name of the host
+     * @param bytes number of bytes received
+     * @return the nanoseconds spent waiting
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public static long acquireBytes(String host, long bytes) throws InterruptedIOException {
+        return acquire(BYTES, HOST_BYTES.computeIfAbsent(normalize(host), h -> new TokenBucket(hostByteRate)), bytes);
+    }
+
+    /**
+     * count received bytes without waiting, for callers that postpone reading more data by themselves
+     *
+     * @param host name of the host
+     * @param bytes number of bytes received
+     * @return the nanoseconds to wait before more data may be received
+     */
+    public static long reserveBytes(String host, long bytes) {
+        return reserve(BYTES, HOST_BYTES.computeIfAbsent(normalize(host), h -> new TokenBucket(hostByteRate)), bytes);
+    }
+
+    /**
+     * wrap a stream, so that all bytes read from it are counted against the bandwidth limits of the host
+     *
+     * @param in the stream of a download
+     * @param host name of the host
+     * @return the limited stream
+     */
+    public static InputStream throttle(InputStream in, String host) {
+        return throttle(in, host, null);
+    }
+
+    /**
+     * wrap a stream, so that all bytes read from it are counted against the bandwidth limits of the host and an additional limit
+     *
+     * @param in the stream of a download
+     * @param host name of the host
+     * @param bandwidthLimit additional limit of the caller, or null
+     * @return the limited stream
+     */
+    static InputStream throttle(InputStream in, String host, TokenBucket bandwidthLimit) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquireBytes(host, 1);
+                    acquire(bandwidthLimit, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    acquireBytes(host, read);
+                    acquire(bandwidthLimit, read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * take tokens from a limit of the caller and wait until they are available
+     *
+     * @param bandwidthLimit the limit, or null for no limit
+     * @param amount number of tokens, e.g. bytes
+     * @return the nanoseconds spent waiting
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    static long acquire(TokenBucket bandwidthLimit, long amount) throws InterruptedIOException {
+        if (bandwidthLimit == null) {
+            return 0;
+        }
+        return sleep(bandwidthLimit.reserve(amount, System.nanoTime()));
+    }
+
+    private static long acquire(TokenBucket global, TokenBucket host, long amount) throws InterruptedIOException {
+        return sleep(reserve(global, host, amount));
+    }
+
+    private static long sleep(long wait) throws InterruptedIOException {
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the download limits");
+            }
+        }
+        return wait;
+    }
+
+    private static long reserve(TokenBucket global, TokenBucket host, long amount) {
+        long now = System.nanoTime();
+        long wait = Math.max(global.reserve(amount, now), host.reserve(amount, now));
+        WAIT_NANOS.add(wait);
+        return wait;
+    }
+
+    private static String normalize(String host) {
+        return String.valueOf(host).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * token bucket of one limit, which also measures the usage of the last seconds. Callers with a limit of their own, like the prefetcher, use
+     * their own instance.
+     */
+    static final class TokenBucket {
+        // tokens per second, 0 for no limit
+        private double rate;
+        // available tokens, negative if waiting callers already reserved tokens of the future
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        // usage per second of the last seconds, indexed by the second modulo the length
+        private final long[] usage = new long[USAGE_SECONDS + 1];
+        private long usageSecond = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        private long total;
+
+        private TokenBucket() {
+            this(0);
+        }
+
+        /**
+         * create a bucket that starts full
+         *
+         * @param rate tokens per second, 0 for no limit
+         */
+        TokenBucket(double rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        private synchronized void setRate(double rate) {
+            refill(System.nanoTime());
+            // a bucket without limit before starts full
+            this.tokens = this.rate <= 0 ? rate : Math.min(tokens, rate);
+            this.rate = rate;
+        }
+
+        /**
+         * take tokens from the bucket
+         *
+         * @return the nanoseconds until the taken tokens are available
+         */
+        synchronized long reserve(long amount, long now) {
+            refill(now);
+            advanceUsage(now);
+            usage[(int) (usageSecond % usage.length)] += amount;
+            total += amount;
+            if (rate <= 0) {
+                return 0;
+            }
+            tokens -= amount;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens / rate * 1e9);
+        }
+
+        private void refill(long now) {
+            if (rate > 0) {
+                tokens = Math.min(Math.max(rate, 1), tokens + (now - lastRefill) / 1e9 * rate);
+            }
+            lastRefill = now;
+        }
+
+        private void advanceUsage(long now) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(now);
+            for (long s = Math.max(usageSecond + 1, second - usage.length + 1); s <= second; s++) {
+                usage[(int) (s % usage.length)] = 0;
+            }
+            usageSecond = Math.max(usageSecond, second);
+        }
+
+        /**
+         * get the average usage per second of the last complete seconds
+         */
+        private synchronized double getCurrentRate() {
+            advanceUsage(System.nanoTime());
+            long sum = 0;
+            for (int i = 0; i < usage.length; i++) {
+                if (i != usageSecond % usage.length) {
+                    sum += usage[i];
+                }
+            }
+            return (double) sum / USAGE_SECONDS;
+        }
+
+        private synchronized double getRate() {
+            return rate;
+        }
+
+        private synchronized long getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * the current usage and the limits, exposed via JMX
+     */
+    private static class Usage implements DownloadGovernorMXBean {
+
+        @Override
+        public double getRequestsPerSecond() {
+            return REQUESTS.getCurrentRate();
+        }
+
+        @Override
+        public double getBytesPerSecond() {
+            return BYTES.getCurrentRate();
+        }
+
+        @Override
+        public double getMaxRequestsPerSecond() {
+            return REQUESTS.getRate();
+        }
+
+        @Override
+        public double getMaxBytesPerSecond() {
+            return BYTES.getRate();
+        }
+
+        @Override
+        public long getRequests() {
+            return REQUESTS.getTotal();
+        }
+
+        @Override
+        public long getBytes() {
+            return BYTES.getTotal();
+        }
+
+        @Override
+        public long getWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(WAIT_NANOS.sum());
+        }
+
+        @Override
+        public Map<String, Double> getHostRequestsPerSecond() {
+            Map<String, Double> result = new TreeMap<>();
+            HOST_REQUESTS.forEach((host, bucket) -> result.put(host, bucket.getCurrentRate()));
+            return result;
+        }
+
+        @Override
+        public Map<String, Double> getHostBytesPerSecond() {
+            Map<String, Double> result = new TreeMap<>();
+            HOST_BYTES.forEach((host, bucket) -> result.put(host, bucket.getCurrentRate()));
+            return result;
+        }
+    }
+}
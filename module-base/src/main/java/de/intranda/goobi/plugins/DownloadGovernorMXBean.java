@@ -0,0 +1,74 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import java.util.Map;
+
+/**
+ * Current usage and limits of the downloads of all runs, registered as de.intranda.goobi.plugins:type=FetchImagesFromMetadata,name=DownloadGovernor.
+ */
+public interface DownloadGovernorMXBean {
+
+    /**
+     * get the requests per second of all hosts, averaged over the last seconds
+     */
+    double getRequestsPerSecond();
+
+    /**
+     * get the bytes per second of all hosts, averaged over the last seconds
+     */
+    double getBytesPerSecond();
+
+    /**
+     * get the limit of requests per second of all hosts, 0 if there is no limit
+     */
+    double getMaxRequestsPerSecond();
+
+    /**
+     * get the limit of bytes per second of all hosts, 0 if there is no limit
+     */
+    double getMaxBytesPerSecond();
+
+    /**
+     * get the number of requests since the start of the JVM
+     */
+    long getRequests();
+
+    /**
+     * get the number of bytes received since the start of the JVM
+     */
+    long getBytes();
+
+    /**
+     * get the milliseconds that all downloads waited for the limits
+     */
+    long getWaitMillis();
+
+    /**
+     * get the requests per second, averaged over the last seconds and mapped by the host name
+     */
+    Map<String, Double> getHostRequestsPerSecond();
+
+    /**
+     * get the bytes per second, averaged over the last seconds and mapped by the host name
+     */
+    Map<String, Double> getHostBytesPerSecond();
+}
@@ -0,0 +1,173 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Manifest of all images of a process that were downloaded via URL. For every URL it holds the name of the downloaded file, the ETag and
+ * Last-Modified values sent by the server, the size and the SHA-256 and MD5 checksums. These values are used to send conditional requests on a
+ * re-run, so that unchanged images are not downloaded again.
+ *
+ * The manifest is stored as a tab separated text file in the working folder of the plugin inside of the process folder.
+ */
+@Log4j2
+public class DownloadManifest {
+
+    private static final String HEADER = "url\tfile\tetag\tlastModified\tsize\tsha256\tmd5";
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private DownloadManifest(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * read the manifest file, a missing or unreadable file results in an empty manifest
+     *
+     * @param file path of the manifest file
+     * @return the manifest
+     */
+    public static DownloadManifest load(Path file) {
+        DownloadManifest manifest = new DownloadManifest(file);
+        if (!Files.isRegularFile(file)) {
+            return manifest;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 7 || line.startsWith("url\t")) {
+                    continue;
+                }
+                long size = -1;
+                try {
+                    size = Long.parseLong(fields[4]);
+                } catch (NumberFormatException e) {
+                    // keep it unknown
+                }
+                manifest.entries.put(fields[0], new Entry(fields[0], fields[1], emptyToNull(fields[2]), emptyToNull(fields[3]), size,
+                        emptyToNull(fields[5]), emptyToNull(fields[6])));
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read the download manifest " + file + ", all images are treated as new.", e);
+        }
+        return manifest;
+    }
+
+    /**
+     * get the entry of a URL
+     *
+     * @param url the URL as it is given in the metadata
+     * @return the entry, or null if this URL was never downloaded
+     */
+    public Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * add or replace the entry of a URL
+     *
+     * @param entry the new entry
+     */
+    public void put(Entry entry) {
+        entries.put(entry.getUrl(), entry);
+    }
+
+    /**
+     * write the manifest, entries whose files do not exist in the media folder anymore are left out
+     *
+     * @param mediaFolder media folder of the process
+     * @throws IOException
+     */
+    public void save(Path mediaFolder) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                if (!Files.exists(mediaFolder.resolve(entry.getFileName())) || containsSeparator(entry)) {
+                    continue;
+                }
+                writer.write(String.join("\t", entry.getUrl(), entry.getFileName(), nullToEmpty(entry.getEtag()),
+                        nullToEmpty(entry.getLastModified()), String.valueOf(entry.getSize()), nullToEmpty(entry.getSha256()),
+                        nullToEmpty(entry.getMd5())));
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean containsSeparator(Entry entry) {
+        String all = entry.getUrl() + entry.getFileName() + nullToEmpty(entry.getEtag()) + nullToEmpty(entry.getLastModified());
+        return all.indexOf('\t') >= 0 || all.indexOf('\n') >= 0 || all.indexOf('\r') >= 0;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * one downloaded image
+     */
+    public static class Entry {
+        @Getter
+        private final String url;
+        @Getter
+        private final String fileName;
+        @Getter
+        private final String etag;
+        @Getter
+        private final String lastModified;
+        @Getter
+        private final long size;
+        @Getter
+        private final String sha256;
+        @Getter
+        private final String md5;
+
+        public Entry(String url, String fileName, String etag, String lastModified, long size, String sha256, String md5) {
+            this.url = url;
+            this.fileName = fileName;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.sha256 = sha256;
+            this.md5 = md5;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+import org.goobi.production.enums.PluginType;
+import org.goobi.production.plugin.PluginLoader;
+import org.goobi.production.plugin.interfaces.IExportPlugin;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.export.dms.ExportDms;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Node-local queue of process exports that run in the background, so that the step does not have to wait for them. The number of exports that
+ * run at the same time is limited for all processes together, and the queue has a fixed capacity. Every queued export is also written as a file
+ * into the temporary folder of Goobi and removed when the export is done, so that exports that were still pending when the application stopped
+ * are started again with the first use of the queue.
+ */
+@Log4j2
+public class ExportQueue {
+
+    // name of the folder inside of the temporary folder of Goobi that holds the pending exports
+    private static final String QUEUE_FOLDER_NAME = "fetch_images_export_queue";
+    private static final String QUEUE_FILE_EXTENSION = ".export";
+
+    private static ExportQueue instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Path folder;
+    // lowest level that is written to the process journal
+    private final String journalLevel;
+    // ids of the processes with an export that did not start yet
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+    private ExportQueue(int threads, int capacity, String journalLevel) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity), runnable -> {
+            Thread thread = new Thread(runnable, "fetch-images-export-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.folder = Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), QUEUE_FOLDER_NAME);
+        this.journalLevel = journalLevel;
+    }
+
+    /**
+     * get the export queue of this node, create it and restart the pending exports if it does not exist yet
+     *
+     * @param threads number of exports that may run at the same time, changes the limit of an existing queue
+     * @param capacity number of exports that may wait, only used when the queue is created
+     * @param journalLevel lowest level that is written to the process journal, only used when the queue is created
+     * @return the export queue
+     */
+    public static synchronized ExportQueue getInstance(int threads, int capacity, String journalLevel) {
+        if (instance == null) {
+            instance = new ExportQueue(threads, capacity, journalLevel);
+            instance.recover();
+        } else if (instance.executor.getMaximumPoolSize() != threads) {
+            // keep core size <= maximum size while changing both
+            if (threads > instance.executor.getMaximumPoolSize()) {
+                instance.executor.setMaximumPoolSize(threads);
+                instance.executor.setCorePoolSize(threads);
+            } else {
+                instance.executor.setCorePoolSize(threads);
+                instance.executor.setMaximumPoolSize(threads);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * queue the export of a process
+     *
+     * @param process the process to be exported
+     * @param exportImages true if the images should be exported, false otherwise
+     * @return true if the export is queued or an export of this process is already waiting, false if the queue is full
+     */
+    public boolean submit(Process process, boolean exportImages) {
+        int processId = process.getId();
+        if (!pending.add(processId)) {
+            // the waiting export will already see the current state of the process
+            return true;
+        }
+        try {
+            Files.createDirectories(folder);
+            Files.write(getQueueFile(processId), String.valueOf(exportImages).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Cannot persist the export of process " + processId + ", it will not be restarted after a shutdown.", e);
+        }
+        try {
+            executor.execute(() -> run(process, exportImages));
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(processId);
+            deleteQueueFile(processId);
+            return false;
+        }
+    }
+
+    private void run(Process process, boolean exportImages) {
+        int processId = process.getId();
+        pending.remove(processId);
+        ProcessJournal journal = new ProcessJournal(processId, journalLevel);
+        try {
+            if (startExport(process, exportImages)) {
+                journal.add(LogType.INFO, "FetchImagesFromMetadata Step Plugin: Export finished in the background for process with ID " + processId);
+            } else {
+                journal.add(LogType.ERROR, "FetchImagesFromMetadata Step Plugin: Export failed in the background for process with ID " + processId);
+            }
+        } catch (NoSuchMethodError | Exception e) {
+            log.error("Exception during the export of process " + processId, e);
+            journal.add(LogType.ERROR, "FetchImagesFromMetadata Step Plugin: Export failed in the background for process with ID " + processId + ": "
+                    + e.getMessage());
+        } finally {
+            if (!pending.contains(processId)) {
+                deleteQueueFile(processId);
+            }
+            journal.flush();
+        }
+    }
+
+    /**
+     * queue all exports again that were persisted but not finished before
+     */
+    private void recover() {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + QUEUE_FILE_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                try {
+                    int processId = Integer.parseInt(fileName.substring(0, fileName.length() - QUEUE_FILE_EXTENSION.length()));
+                    boolean exportImages = Boolean.parseBoolean(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+                    Process process = ProcessManager.getProcessById(processId);
+                    if (process == null || !submit(process, exportImages)) {
+                        log.warn("Cannot restart the pending export of process " + processId);
+                        Files.deleteIfExists(file);
+                    } else {
+                        log.info("Restarted the pending export of process " + processId);
+                    }
+                } catch (NumberFormatException | IOException e) {
+                    log.warn("Cannot read the pending export " + file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read the pending exports in " + folder, e);
+        }
+    }
+
+    private Path getQueueFile(int processId) {
+        return folder.resolve(processId + QUEUE_FILE_EXTENSION);
+    }
+
+    private void deleteQueueFile(int processId) {
+        try {
+            Files.deleteIfExists(getQueueFile(processId));
+        } catch (IOException e) {
+            log.warn("Cannot remove the pending export of process " + processId, e);
+        }
+    }
+
+    /**
+     * export a process with its export plugin, or with the default export if the process has none
+     *
+     * @param p Goobi process
+     * @param exportImages true if the images should be exported, false otherwise
+     * @return the result of the export plugin
+     * @throws Exception everything that the export plugin may throw
+     */
+    public static boolean startExport(Process p, boolean exportImages) throws Exception {
+        IExportPlugin export = getExportPluginOfProcess(p);
+
+        if (export == null) {
+            export = new ExportDms();
+        }
+        export.setExportFulltext(false);
+        export.setExportImages(exportImages);
+        return export.startExport(p);
+    }
+
+    /**
+     * get the export plugin for this process
+     * 
+     * @param p Goobi process
+     * @return the export plugin for this process if there is any found for this process, otherwise null
+     */
+    private static IExportPlugin getExportPluginOfProcess(Process p) {
+        IExportPlugin export = null;
+        String pluginName = ProcessManager.getExportPluginName(p.getId());
+
+        if (StringUtils.isNotEmpty(pluginName)) {
+            try {
+                export = (IExportPlugin) PluginLoader.getPluginByTitle(PluginType.Export, pluginName);
+            } catch (Exception e) {
+                log.error("Can't load export plugin, use default plugin", e);
+                export = new ExportDms();
+            }
+        }
+
+        return export;
+    }
+}
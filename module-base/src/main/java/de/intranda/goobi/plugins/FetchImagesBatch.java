@@ -0,0 +1,225 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.PluginReturnValue;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Runs the import of images for many processes at once, e.g. for the bulk import of a collection. Each process is imported with the configuration of
+ * its step that uses this plugin, just like the step would do it, but the status of the step is not changed.
+ *
+ * All processes of a batch share one thread pool for their downloads and copies, besides the import folder index and the HTTP clients that are
+ * shared by all runs anyway. The number of processes that are imported at the same time, the number of transfers of all processes and the number of
+ * transfers of a single process are limited. At the end, one report covers all processes of the batch.
+ */
+@Log4j2
+public class FetchImagesBatch {
+
+    private final int maxProcesses;
+    private final int maxTransfers;
+    private final int maxTransfersPerProcess;
+
+    /**
+     * @param maxProcesses number of processes that are imported at the same time
+     * @param maxTransfers number of downloads and copies that run at the same time, for all processes together
+     * @param maxTransfersPerProcess number of downloads and copies of one process that run at the same time, if its configuration allows as many
+     */
+    public FetchImagesBatch(int maxProcesses, int maxTransfers, int maxTransfersPerProcess) {
+        this.maxProcesses = Math.max(1, maxProcesses);
+        this.maxTransfers = Math.max(1, maxTransfers);
+        this.maxTransfersPerProcess = Math.max(1, maxTransfersPerProcess);
+    }
+
+    /**
+     * import the images of the given processes and wait until all of them are done
+     *
+     * @param processIds ids of the processes
+     * @return the report of all processes in the given order
+     */
+    public Report run(List<Integer> processIds) {
+        long start = System.nanoTime();
+        ExecutorService transfers = createExecutor(maxTransfers, "transfer");
+        ExecutorService processes = createExecutor(Math.min(maxProcesses, Math.max(1, processIds.size())), "process");
+        List<Result> results = new ArrayList<>();
+        try {
+            List<Future<Result>> pending = new ArrayList<>();
+            for (Integer processId : processIds) {
+                pending.add(processes.submit(() -> runProcess(processId, transfers)));
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    results.add(pending.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("The import of process " + processIds.get(i) + " failed.", e.getCause());
+                    results.add(new Result(processIds.get(i), null, "ERROR: " + e.getCause(), 0, 0, 0, 0));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("The batch import was interrupted after " + results.size() + " of " + processIds.size() + " processes.");
+        } finally {
+            processes.shutdownNow();
+            transfers.shutdownNow();
+        }
+
+        Report report = new Report(results, System.nanoTime() - start);
+        log.info(report.getSummary());
+        return report;
+    }
+
+    private Result runProcess(int processId, ExecutorService transfers) {
+        long start = System.nanoTime();
+        Process process = ProcessManager.getProcessById(processId);
+        if (process == null) {
+            return new Result(processId, null, "SKIPPED: process not found", 0, 0, 0, 0);
+        }
+        FetchImagesFromMetadataStepPlugin plugin = new FetchImagesFromMetadataStepPlugin();
+        Step step = findStep(process, plugin.getTitle());
+        if (step == null) {
+            return new Result(processId, process.getTitel(), "SKIPPED: no step uses " + plugin.getTitle(), 0, 0, 0, 0);
+        }
+
+        plugin.initialize(step, "");
+        plugin.useSharedTransferExecutor(transfers, maxTransfersPerProcess);
+        PluginReturnValue value = plugin.run();
+        RunMetrics metrics = plugin.getMetrics();
+        return new Result(processId, process.getTitel(), value.name(), metrics.getImages(), metrics.getFailures(), metrics.getBytes(),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * get the first step of the process that runs this plugin
+     */
+    private static Step findStep(Process process, String pluginTitle) {
+        if (process.getSchritte() == null) {
+            return null;
+        }
+        for (Step step : process.getSchritte()) {
+            if (pluginTitle.equals(step.getStepPlugin())) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    private static ExecutorService createExecutor(int threads, String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fetch-images-batch-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * the outcome of the import of one process
+     */
+    public static class Result {
+        @Getter
+        private final int processId;
+        @Getter
+        private final String processTitle;
+        // FINISH or ERROR as returned by the plugin, or a reason why the process was not imported
+        @Getter
+        private final String status;
+        @Getter
+        private final long images;
+        @Getter
+        private final long failures;
+        @Getter
+        private final long bytes;
+        @Getter
+        private final long nanos;
+
+        public Result(int processId, String processTitle, String status, long images, long failures, long bytes, long nanos) {
+            this.processId = processId;
+            this.processTitle = processTitle;
+            this.status = status;
+            this.images = images;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * check if the process was imported without errors
+         *
+         * @return true if the plugin finished successfully, false otherwise
+         */
+        public boolean isSuccessful() {
+            return PluginReturnValue.FINISH.name().equals(status);
+        }
+    }
+
+    /**
+     * the consolidated report of a batch
+     */
+    public static class Report {
+        @Getter
+        private final List<Result> results;
+        @Getter
+        private final long nanos;
+
+        public Report(List<Result> results, long nanos) {
+            this.results = Collections.unmodifiableList(results);
+            this.nanos = nanos;
+        }
+
+        /**
+         * get the report as text, one line with the totals followed by one line per process
+         *
+         * @return the report
+         */
+        public String getSummary() {
+            long successful = results.stream().filter(Result::isSuccessful).count();
+            long images = results.stream().mapToLong(Result::getImages).sum();
+            long failures = results.stream().mapToLong(Result::getFailures).sum();
+            long bytes = results.stream().mapToLong(Result::getBytes).sum();
+            double seconds = Math.max(nanos / 1e9, 0.001);
+            StringBuilder summary = new StringBuilder();
+            summary.append(String.format(Locale.ROOT, "Batch import of %d processes: %d successful, %d with errors or skipped; ", results.size(),
+                    successful, results.size() - successful));
+            summary.append(String.format(Locale.ROOT, "%d images (%d failed), %.1f MB in %.1f s (%.1f images/s, %.1f MB/s)", images, failures,
+                    bytes / 1e6, seconds, images / seconds, bytes / 1e6 / seconds));
+            for (Result result : results) {
+                summary.append(System.lineSeparator());
+                String title = result.getProcessTitle() == null ? "-" : result.getProcessTitle();
+                summary.append(String.format(Locale.ROOT, "  %d %s: %s, %d images (%d failed), %.1f MB in %.1f s", result.getProcessId(), title,
+                        result.getStatus(), result.getImages(), result.getFailures(), result.getBytes() / 1e6, result.getNanos() / 1e9));
+            }
+            return summary.toString();
+        }
+    }
+}
@@ -1,17 +1,26 @@
 package de.intranda.goobi.plugins;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
@@ -34,11 +43,11 @@ import java.util.Collections;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.configuration.SubnodeConfiguration;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.goobi.beans.Process;
@@ -48,22 +57,20 @@ import org.goobi.production.enums.PluginGuiType;
 import org.goobi.production.enums.PluginReturnValue;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
-import org.goobi.production.plugin.PluginLoader;
-import org.goobi.production.plugin.interfaces.IExportPlugin;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
 
 import de.sub.goobi.config.ConfigPlugins;
-import de.sub.goobi.export.dms.ExportDms;
-import de.sub.goobi.helper.Helper;
+import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.StorageProviderInterface;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.persistence.managers.MetadataManager;
-import de.sub.goobi.persistence.managers.ProcessManager;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
+import net.xeoh.plugins.base.annotations.events.Init;
+import net.xeoh.plugins.base.annotations.events.Shutdown;
 import ugh.dl.ContentFile;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
@@ -94,26 +101,120 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
     private String imageMetadata;
     // the source folder for the import
     private String folder;
-    // copy | move
+    // copy | move | hardlink | reflink
     private String mode;
+    // true if the media folders are on a local file system, false if they are in S3
+    private boolean localMedia;
+    // number of images that are copied from the import folder at the same time
+    private int ioThreads;
     // true if file extension is to be ignored, false otherwise
     private boolean ignoreFileExtension;
     // true if errors happened while copying files should be ignored, false otherwise
     private boolean ignoreCopyErrors;
+    // true if images that already exist should be imported again when they changed in the import folder, false otherwise
+    private boolean sync;
+    // true if sync compares the checksums of images of the same size instead of their modification times, false otherwise
+    private boolean syncChecksum;
+    // existing images of this run that were imported again because they changed in the import folder or on the server
+    private AtomicInteger updatedImages = new AtomicInteger();
+    // existing images of this run that were left alone because they did not change in the import folder or on the server
+    private AtomicInteger unchangedImages = new AtomicInteger();
+    // true if an existing image of this run could not be imported again, false otherwise
+    private boolean updateFailed = false;
+    // URLs of this run that the server reported as unchanged since their previous download
+    private Set<String> unchangedDownloads = ConcurrentHashMap.newKeySet();
     // true if the process should be exported by the end of import, false otherwise
     private boolean startExport;
     // true if the images should be exported by the export plugin, false otherwise
     private boolean exportImages;
+    // true if the export should run in the background on the export queue, false otherwise
+    private boolean exportAsync;
+    // number of exports that run at the same time on the export queue, for all processes
+    private int exportThreads;
+    // number of exports that may wait in the export queue
+    private int exportQueueSize;
     // true if any images are imported by this run, false otherwise
     private boolean imagesImported = false;
     // true if the images are to be downloaded from given URLs, false if they are to be imported from the configured import folder
     private boolean useUrl;
     // file extension that should be applied on the downloaded images via URL
     private String imageExtension = ".jpg";
+    // normalized forms of the image names
+    private ImageNameMatcher imageNames;
+    // number of images that are downloaded at the same time
+    private int downloadThreads;
+    // client used to download the images via URL
+    private ImageDownloader downloader;
+    // true if images that were downloaded before should be checked for changes on the server, false otherwise
+    private boolean revalidate;
+    // manifest of all images that were downloaded for this process
+    private DownloadManifest manifest;
+    // node-wide cache of downloaded images, null if disabled
+    private DownloadCache downloadCache;
+    // images of this run that were taken from the download cache
+    private AtomicInteger cacheHits = new AtomicInteger();
+    // images of this run that were not found in the download cache
+    private AtomicInteger cacheMisses = new AtomicInteger();
+    // folder inside of the process folder that holds partial downloads and other working files of this plugin
+    private Path workFolder;
 
     // true if all existing images and pagination should be removed before a re-run happens
     private boolean clearExistingData = false;
 
+    // true if MD5 and SHA-256 checksums should be computed while the images are imported, false otherwise
+    private boolean computeChecksums;
+    // checksums of the images in the media folder, null if disabled
+    private ChecksumSidecar checksums;
+
+    // derivatives that are created of every imported image
+    private List<DerivativeGenerator.Derivative> derivatives;
+    // number of images whose derivatives are created at the same time
+    private int derivativeThreads;
+    // creates the derivatives of this run, null if there are none configured
+    private DerivativeGenerator derivativeGenerator;
+
+    // store that keeps copied images once for all processes, null if disabled
+    private ContentStore contentStore;
+    // file names in the media folder that are linked to the content store, mapped to their checksums, null until they are read
+    private Map<String, String> storeLinks;
+
+    // lowest level that is written to the process journal
+    private String journalLevel;
+    // journal entries of this run, written to the process journal at its end
+    private ProcessJournal journal;
+    // durations and counts of the phases of this run
+    @Getter
+    private RunMetrics metrics;
+
+    // index of the pages of the document by their image names
+    private PageIndex pageIndex;
+
+    // index of the import folder, shared with all other runs using the same folder
+    private ImportFolderIndex folderIndex;
+    // downloads that were started ahead of the page creation, mapped by their URLs
+    private Map<String, Future<File>> downloads = new HashMap<>();
+    // copies from the import folder that were started ahead of the page creation, mapped by their image names
+    private Map<String, Future<File>> copies = new HashMap<>();
+    // true if images staged by the prefetcher should be used, false otherwise
+    private boolean prefetch;
+    // staging folder of all processes
+    private Path stagingFolder;
+    // images of this process that were fetched before the step started, null if prefetching is disabled
+    private StagingArea staging;
+    // thread pool that runs the transfers of several processes of a batch, null if this run uses its own threads
+    private ExecutorService sharedTransferExecutor;
+    // number of transfers of this process that may run on the shared thread pool at the same time
+    private int maxSharedTransfers;
+
+    // name of the folder inside of the process folder that holds the working files of this plugin
+    private static final String WORK_FOLDER_NAME = "fetch_images_from_metadata";
+    // name of the manifest file of all downloaded images inside of the working folder
+    private static final String MANIFEST_FILE_NAME = "downloads.tsv";
+    // name of the list of content store links inside of the working folder
+    private static final String STORE_LINKS_FILE_NAME = "store.tsv";
+    // name of the checksum sidecar of the media folder inside of the working folder
+    private static final String CHECKSUMS_FILE_NAME = "checksums.tsv";
+
     private static StorageProviderInterface storageProvider = StorageProvider.getInstance();
 
     @Override
@@ -126,15 +227,46 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         // read parameters from correct block in configuration file
         SubnodeConfiguration myconfig = ConfigPlugins.getProjectAndStepConfig(title, step);
         this.useUrl = myconfig.getBoolean("useUrl", false);
+        this.downloadThreads = Math.max(1, myconfig.getInt("download/@threads", 1));
+        this.downloader = new ImageDownloader(myconfig);
+        this.revalidate = myconfig.getBoolean("download/@revalidate", false);
+        if (myconfig.getBoolean("downloadCache/@enabled", false)) {
+            this.downloadCache = DownloadCache.forFolder(myconfig.getString("downloadCache/@folder"),
+                    Math.max(0, myconfig.getLong("downloadCache/@maxSize", 10240)) * 1024 * 1024, myconfig.getString("downloadCache/@mode", "copy"),
+                    Math.max(0, myconfig.getLong("downloadCache/@maxAge", 86400)) * 1000);
+        }
         this.imageMetadata = myconfig.getString("filenameMetadata");
         this.folder = myconfig.getString("fileHandling/@folder");
         this.ignoreFileExtension = myconfig.getBoolean("fileHandling/@ignoreFileExtension", false);
+        this.imageNames = new ImageNameMatcher(imageExtension, ignoreFileExtension);
         this.mode = myconfig.getString("fileHandling/@mode", "copy");
+        this.localMedia = !ConfigurationHelper.getInstance().useS3();
+        this.ioThreads = Math.max(1, myconfig.getInt("fileHandling/@ioThreads", 1));
         this.ignoreCopyErrors = myconfig.getBoolean("fileHandling/@ignoreCopyErrors", false);
+        this.sync = myconfig.getBoolean("fileHandling/@sync", false);
+        this.syncChecksum = myconfig.getBoolean("fileHandling/@syncChecksum", false);
         this.startExport = myconfig.getBoolean("export/@enabled", false);
         this.exportImages = myconfig.getBoolean("export/@exportImages", true);
+        this.exportAsync = myconfig.getBoolean("export/@async", false);
+        this.exportThreads = Math.max(1, myconfig.getInt("export/@maxConcurrent", 2));
+        this.exportQueueSize = Math.max(1, myconfig.getInt("export/@queueSize", 100));
 
         clearExistingData = myconfig.getBoolean("clearExistingData", false);
+        this.computeChecksums = myconfig.getBoolean("checksums/@enabled", false);
+        this.derivatives = DerivativeGenerator.readConfiguration(myconfig);
+        this.derivativeThreads = Math.max(1, myconfig.getInt("derivatives/@threads", 1));
+        this.journalLevel = myconfig.getString("journal/@level", "DEBUG");
+        this.journal = new ProcessJournal(process.getId(), journalLevel);
+        if (myconfig.getBoolean("contentStore/@enabled", false)) {
+            this.contentStore = ContentStore.forFolder(myconfig.getString("contentStore/@folder"),
+                    myconfig.getString("contentStore/@mode", "reflink"));
+        }
+        this.prefetch = myconfig.getBoolean("prefetch/@enabled", false) && ImagePrefetcher.isStagingUsed(myconfig);
+        if (prefetch) {
+            this.stagingFolder = ImagePrefetcher.getStagingFolder(myconfig);
+            // usually started when the plugin was loaded, unless prefetching was enabled afterwards
+            ImagePrefetcher.start(title, myconfig);
+        }
         if (!folder.endsWith("/")) {
             folder = folder + "/";
         }
@@ -142,6 +274,27 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         log.info("FetchImagesFromMetadata step plugin initialized");
     }
 
+    /**
+     * start the prefetcher of this node when the plugin is loaded, so that it does not wait for the first step with this plugin
+     */
+    @Init
+    public void startPrefetcher() {
+        try {
+            ImagePrefetcher.start(title);
+        } catch (RuntimeException e) {
+            // the plugin must load anyway
+            log.error("Cannot start the prefetcher of images.", e);
+        }
+    }
+
+    /**
+     * stop the prefetcher of this node when the plugin is unloaded
+     */
+    @Shutdown
+    public void stopPrefetcher() {
+        ImagePrefetcher.stop();
+    }
+
     @Override
     public PluginGuiType getPluginGuiType() {
         return PluginGuiType.NONE;
@@ -188,56 +341,92 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
 
     @Override
     public PluginReturnValue run() {
+        try {
+            return importImages();
+        } finally {
+            // the entries are also written if the run failed with an unexpected exception
+            journal.flush();
+        }
+    }
+
+    /**
+     * import the images, pages and metadata of the process and export it if configured
+     * 
+     * @return FINISH if everything was fine, ERROR otherwise
+     */
+    private PluginReturnValue importImages() {
         boolean successful = true;
+        metrics = new RunMetrics();
 
         try {
+            workFolder = Paths.get(process.getProcessDataDirectory(), WORK_FOLDER_NAME);
+            if (prefetch) {
+                // stop the prefetcher from working on this process, take what it fetched so far
+                ImagePrefetcher.claim(process.getId());
+                staging = new StagingArea(stagingFolder, process.getId());
+            }
+            long start = System.nanoTime();
             Fileformat fileformat = process.readMetadataFile();
+            metrics.record(RunMetrics.Phase.READ_METADATA, start);
             DigitalDocument dd = prepareDigitalDocument(fileformat);
             String processImageFolder = process.getConfiguredImageFolder("media");
             Set<String> existingImages = new HashSet<>(storageProvider.list(processImageFolder));
+            if (computeChecksums) {
+                checksums = ChecksumSidecar.load(workFolder.resolve(CHECKSUMS_FILE_NAME));
+            }
+            if (contentStore != null) {
+                storeLinks = Collections.synchronizedMap(ContentStore.readLinks(workFolder.resolve(STORE_LINKS_FILE_NAME)));
+            }
 
-            if (clearExistingData) {
-                existingImages.clear();
+            if (!derivatives.isEmpty()) {
+                derivativeGenerator =
+                        new DerivativeGenerator(derivatives, Paths.get(process.getImagesDirectory()), derivativeThreads, process.getId());
+            }
 
-                DocStruct logical = dd.getLogicalDocStruct();
-                if (logical.getType().isAnchor()) {
-                    logical = logical.getAllChildren().get(0);
+            if (clearExistingData) {
+                // remove all existing files together with their derivatives
+                deleteImageFiles(processImageFolder);
+                releaseStoreLinks(processImageFolder);
+                if (derivativeGenerator != null) {
+                    existingImages.forEach(derivativeGenerator::delete);
                 }
-
-                DocStruct physical = dd.getPhysicalDocStruct();
-                // get a set of filenames in target directory
-
-                // remove all existing files
-                StorageProvider.getInstance().deleteDataInDir(Paths.get(processImageFolder));
+                existingImages.clear();
 
                 // remove pagination
-                List<DocStruct> pages = physical.getAllChildren();
-                if (pages != null && !pages.isEmpty()) {
-                    // process contains data, clear it
-                    for (DocStruct page : pages) {
-                        dd.getFileSet().removeFile(page.getAllContentFiles().get(0));
-                        List<Reference> refs = new ArrayList<>(page.getAllFromReferences());
-                        for (ugh.dl.Reference ref : refs) {
-                            ref.getSource().removeReferenceTo(page);
-                        }
-                    }
-                    while (physical.getAllChildren() != null && !physical.getAllChildren().isEmpty()) {
-                        physical.removeChild(physical.getAllChildren().get(0));
-                    }
-                    while (logical.getAllChildren() != null && !logical.getAllChildren().isEmpty()) {
-                        logical.removeChild(logical.getAllChildren().get(0));
-                    }
-                }
+                clearPagination(dd);
             }
             // process images by their names or by their urls
             successful = processImages(processImageFolder, dd, existingImages);
+            if (useUrl && downloader.getSummary() != null) {
+                logBoth(process.getId(), LogType.INFO, downloader.getSummary());
+            }
+            if (useUrl && downloadCache != null) {
+                logBoth(process.getId(), LogType.INFO, "This run took " + cacheHits.get() + " images from the download cache and missed "
+                        + cacheMisses.get() + ". " + downloadCache.getSummary());
+            }
 
             // save the metadata
+            start = System.nanoTime();
             process.writeMetadataFile(fileformat);
+            metrics.record(RunMetrics.Phase.WRITE_METADATA, start);
 
         } catch (IOException | SwapException | DAOException | UGHException e) {
             log.error(e);
             successful = false;
+        } finally {
+            if (contentStore != null && storeLinks != null) {
+                // the links are written even if the run failed, so that the references taken so far can be released again
+                try {
+                    ContentStore.writeLinks(workFolder.resolve(STORE_LINKS_FILE_NAME), storeLinks);
+                } catch (IOException e) {
+                    logBoth(process.getId(), LogType.ERROR, "Cannot write the list of content store links: " + e.getMessage());
+                    successful = false;
+                }
+            }
+            if (staging != null) {
+                staging.clear();
+                ImagePrefetcher.release(process.getId());
+            }
         }
 
         if (imagesImported) {
@@ -247,14 +436,164 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
 
         if (startExport && process != null) {
             // export the process only if everything has been fine so far
-            successful = successful && exportProcess(process, exportImages);
+            long start = System.nanoTime();
+            if (exportAsync && successful) {
+                successful = queueExport(process, exportImages);
+            } else {
+                successful = successful && exportProcess(process, exportImages);
+            }
+            metrics.record(RunMetrics.Phase.EXPORT, start);
         }
 
+        logBoth(process.getId(), LogType.INFO, metrics.finish());
+
         log.info("FetchImagesFromMetadata step plugin executed");
 
         return successful ? PluginReturnValue.FINISH : PluginReturnValue.ERROR;
     }
 
+    /**
+     * delete all files of the media folder, using the configured number of I/O threads
+     * 
+     * @param processImageFolder media folder of the process
+     * @throws IOException
+     */
+    private void deleteImageFiles(String processImageFolder) throws IOException {
+        Path imageFolder = Paths.get(processImageFolder);
+        if (ioThreads > 1) {
+            ExecutorService executor = createTransferExecutor(ioThreads, "delete");
+            try {
+                List<Future<?>> deletions = new ArrayList<>();
+                for (Path file : storageProvider.listFiles(processImageFolder)) {
+                    deletions.add(executor.submit(() -> {
+                        storageProvider.deleteFile(file);
+                        return null;
+                    }));
+                }
+                for (Future<?> deletion : deletions) {
+                    await(deletion);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        // removes everything that is left, e.g. sub folders
+        storageProvider.deleteDataInDir(imageFolder);
+    }
+
+    /**
+     * remove all pages from the physical structure, together with their content files and their references from the logical structure
+     * 
+     * @param dd DigitalDocument
+     */
+    static void clearPagination(DigitalDocument dd) {
+        DocStruct logical = dd.getLogicalDocStruct();
+        if (logical.getType().isAnchor()) {
+            logical = logical.getAllChildren().get(0);
+        }
+
+        DocStruct physical = dd.getPhysicalDocStruct();
+        List<DocStruct> pages = physical.getAllChildren();
+        if (pages != null && !pages.isEmpty()) {
+            // process contains data, clear it
+            removePages(dd, pages);
+            removeAllChildren(physical);
+            removeAllChildren(logical);
+        }
+    }
+
+    /**
+     * remove the content files and all references of the pages in one pass over each list
+     * 
+     * @param dd DigitalDocument
+     * @param pages all pages of the document
+     */
+    private static void removePages(DigitalDocument dd, List<DocStruct> pages) {
+        Set<DocStruct> pageSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        pageSet.addAll(pages);
+        Set<ContentFile> contentFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<DocStruct> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DocStruct page : pages) {
+            contentFiles.add(page.getAllContentFiles().get(0));
+            for (Reference ref : page.getAllFromReferences()) {
+                sources.add(ref.getSource());
+            }
+        }
+
+        if (!removeAll(dd.getFileSet()::getAllFiles, contentFiles::contains)) {
+            for (ContentFile file : contentFiles) {
+                dd.getFileSet().removeFile(file);
+            }
+        }
+
+        for (DocStruct source : sources) {
+            if (!removeAll(source::getAllToReferences, ref -> pageSet.contains(ref.getTarget()))) {
+                for (Reference ref : new ArrayList<>(source.getAllToReferences())) {
+                    if (pageSet.contains(ref.getTarget())) {
+                        source.removeReferenceTo(ref.getTarget());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * remove all children of a DocStruct
+     * 
+     * @param parent the DocStruct whose children should be removed
+     */
+    private static void removeAllChildren(DocStruct parent) {
+        if (removeAll(parent::getAllChildren, child -> true)) {
+            return;
+        }
+        List<DocStruct> children = parent.getAllChildren();
+        // remove from the end, so that the list does not need to shift the remaining children
+        for (int i = children.size() - 1; i >= 0; i--) {
+            parent.removeChild(children.get(i));
+        }
+    }
+
+    /**
+     * remove all matching elements from a list of the digital document in one pass
+     * 
+     * @param getter returns the list of the digital document
+     * @param filter matches the elements that should be removed
+     * @return true if the elements were removed, false if the getter only returns a copy or the list cannot be modified
+     */
+    private static <T> boolean removeAll(Supplier<List<T>> getter, Predicate<T> filter) {
+        List<T> list = getter.get();
+        if (list == null) {
+            return true;
+        }
+        try {
+            list.removeIf(filter);
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+        // get the list again to make sure that the document itself was changed
+        list = getter.get();
+        return list == null || list.stream().noneMatch(filter);
+    }
+
+    /**
+     * release the content store objects of all files that were removed from the media folder
+     * 
+     * @param processImageFolder media folder of the process
+     */
+    private void releaseStoreLinks(String processImageFolder) {
+        if (contentStore == null) {
+            return;
+        }
+        for (Map.Entry<String, String> link : storeLinks.entrySet()) {
+            try {
+                contentStore.release(link.getValue(), Paths.get(processImageFolder, link.getKey()));
+            } catch (IOException e) {
+                log.warn("Cannot release the content store object " + link.getValue(), e);
+            }
+        }
+        storeLinks.clear();
+    }
+
     /**
      * prepare the DigitalDocument object that is to be used
      * 
@@ -291,22 +630,213 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
 
         List<String> lstImages = getImageNamesList(dd);
         int iPageNumber = 1;
+        pageIndex = new PageIndex(dd, ignoreFileExtension);
 
-        for (String strImage : lstImages) {
-            // strImage all have file extensions
-            log.debug("strImage = " + strImage);
-            // process the image page named strImage
-            boolean processResult = processImagePageByName(strImage, processImageFolder, dd, iPageNumber, existingImages);
-            if (processResult) {
-                iPageNumber++;
+        if (!useUrl) {
+            long start = System.nanoTime();
+            folderIndex = ImportFolderIndex.getInstance(folder);
+            metrics.record(RunMetrics.Phase.MATCHING, start);
+        }
+
+        if (useUrl) {
+            manifest = DownloadManifest.load(workFolder.resolve(MANIFEST_FILE_NAME));
+        }
+
+        ExecutorService transferExecutor = null;
+        if (useUrl && downloadThreads > 1) {
+            transferExecutor = createTransferExecutor(downloadThreads, "download");
+            downloads = startDownloads(lstImages, processImageFolder, existingImages, transferExecutor);
+        } else if (!useUrl && ioThreads > 1) {
+            transferExecutor = createTransferExecutor(ioThreads, "copy");
+            copies = startCopies(lstImages, processImageFolder, existingImages, transferExecutor);
+        }
+
+        try {
+            // the pages are created one after another in the original order, only the transfers run in parallel
+            for (String strImage : lstImages) {
+                // strImage all have file extensions
+                log.debug("strImage = " + strImage);
+                // process the image page named strImage
+                boolean processResult = processImagePageByName(strImage, processImageFolder, dd, iPageNumber, existingImages);
+                if (processResult) {
+                    iPageNumber++;
+                }
+                // processResult only counts when ignoreCopyErrors is set false
+                successful = successful && (ignoreCopyErrors || processResult);
+            }
+            successful = successful && (ignoreCopyErrors || !updateFailed);
+            if (!useUrl && sync) {
+                logBoth(process.getId(), LogType.INFO, "Sync with the import folder: " + updatedImages.get() + " images updated, "
+                        + unchangedImages.get() + " images unchanged.");
+            }
+            if (useUrl && revalidate) {
+                logBoth(process.getId(), LogType.INFO, "Revalidation with the server: " + updatedImages.get() + " images updated, "
+                        + unchangedImages.get() + " images unchanged.");
+            }
+        } finally {
+            if (transferExecutor != null) {
+                transferExecutor.shutdownNow();
+            }
+            downloads.clear();
+            copies.clear();
+            if (useUrl) {
+                saveManifest(processImageFolder);
+            }
+            if (checksums != null) {
+                saveChecksums(processImageFolder);
+            }
+            if (derivativeGenerator != null) {
+                derivativeGenerator.finish();
+                if (derivativeGenerator.getSummary() != null) {
+                    logBoth(process.getId(), LogType.INFO, derivativeGenerator.getSummary());
+                }
             }
-            // processResult only counts when ignoreCopyErrors is set false
-            successful = successful && (ignoreCopyErrors || processResult);
         }
 
         return successful;
     }
 
+    /**
+     * save the manifest of the downloaded images
+     * 
+     * @param processImageFolder media folder of the process
+     */
+    private void saveManifest(String processImageFolder) {
+        try {
+            manifest.save(Paths.get(processImageFolder));
+        } catch (IOException e) {
+            String message = "failed to save the manifest of the downloaded images: " + e.getMessage();
+            logBoth(process.getId(), LogType.WARN, message);
+        }
+    }
+
+    /**
+     * save the checksums of the imported images
+     * 
+     * @param processImageFolder media folder of the process
+     */
+    private void saveChecksums(String processImageFolder) {
+        try {
+            checksums.save(Paths.get(processImageFolder));
+        } catch (IOException e) {
+            String message = "failed to save the checksums of the imported images: " + e.getMessage();
+            logBoth(process.getId(), LogType.WARN, message);
+        }
+    }
+
+    /**
+     * run the downloads and copies of this process on a thread pool that is shared with other processes, used by {@link FetchImagesBatch}
+     * 
+     * @param executor the shared thread pool
+     * @param maxTransfers number of transfers of this process that may run at the same time, the configured number of threads is used if it is lower
+     */
+    void useSharedTransferExecutor(ExecutorService executor, int maxTransfers) {
+        this.sharedTransferExecutor = executor;
+        this.maxSharedTransfers = Math.max(1, maxTransfers);
+    }
+
+    /**
+     * create the thread pool that is used to download or copy the images of this run
+     * 
+     * @param threads number of threads
+     * @param name kind of transfer, used in the thread names
+     * @return the thread pool with the given number of threads
+     */
+    private ExecutorService createTransferExecutor(int threads, String name) {
+        if (sharedTransferExecutor != null) {
+            return new LimitedExecutor(sharedTransferExecutor, Math.min(threads, maxSharedTransfers));
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fetch-images-" + name + "-" + process.getId() + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * start the downloads of all images that were not imported yet
+     * 
+     * @param lstImages list of image URLs in the order of the pagination
+     * @param processImageFolder media folder of the process
+     * @param existingImages a Set containing names of all existing images
+     * @param executor thread pool that should run the downloads
+     * @return a Map from image URL to the pending download
+     */
+    private Map<String, Future<File>> startDownloads(List<String> lstImages, String processImageFolder, Set<String> existingImages,
+            ExecutorService executor) {
+        Map<String, Future<File>> result = new LinkedHashMap<>();
+        Set<String> targetNames = new HashSet<>();
+        for (String strImage : lstImages) {
+            // URLs sharing the same target file are left to the sequential download, so that they never write the same file at once
+            if (result.containsKey(strImage) || (!revalidate && checkExistenceOfImage(strImage, existingImages))
+                    || !targetNames.add(imageNames.resolve(strImage).getImageName())) {
+                continue;
+            }
+            result.put(strImage, executor.submit(() -> downloadImageFile(strImage, processImageFolder)));
+        }
+        return result;
+    }
+
+    /**
+     * start copying all images from the import folder that were not imported yet, or that changed since if sync is enabled
+     * 
+     * @param lstImages list of image names in the order of the pagination
+     * @param processImageFolder media folder of the process
+     * @param existingImages a Set containing names of all existing images
+     * @param executor thread pool that should run the copies
+     * @return a Map from image name to the pending copy, which results in null for an unchanged image
+     */
+    private Map<String, Future<File>> startCopies(List<String> lstImages, String processImageFolder, Set<String> existingImages,
+            ExecutorService executor) {
+        Map<String, Future<File>> result = new LinkedHashMap<>();
+        Set<Path> sources = new HashSet<>();
+        Set<String> targetNames = new HashSet<>();
+        for (String strImage : lstImages) {
+            boolean imageExisting = checkExistenceOfImage(strImage, existingImages);
+            if (result.containsKey(strImage) || (imageExisting && !sync)) {
+                continue;
+            }
+            File file = getMatchedImageFile(strImage);
+            // images sharing the same source or target file are left to the sequential import, just like missing files
+            if (file == null || !sources.add(file.toPath()) || !targetNames.add(file.getName().replace(" ", "_"))) {
+                continue;
+            }
+            if (imageExisting) {
+                result.put(strImage, executor.submit(() -> syncImageFile(strImage, processImageFolder, file)));
+            } else {
+                result.put(strImage, executor.submit(() -> saveImageFile(strImage, processImageFolder, file)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * get the downloaded image file, either from the parallel download stage or by downloading it right now
+     * 
+     * @param strUrl url of the image file
+     * @param processImageFolder media folder of the process
+     * @return the image file as a File object if it is successfully downloaded, null otherwise
+     */
+    private File getDownloadedImageFile(String strUrl, String processImageFolder) {
+        Future<File> download = downloads.remove(strUrl);
+        if (download == null) {
+            return downloadImageFile(strUrl, processImageFolder);
+        }
+
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            String message = "failed to download the image from " + strUrl;
+            logBoth(process.getId(), LogType.ERROR, message);
+            log.error(message, e.getCause());
+            return null;
+        }
+    }
+
     /**
      * get a sorted list of image names from the Mets file
      * 
@@ -314,7 +844,9 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
      * @return the sorted list of image names from the Mets file
      */
     private List<String> getImageNamesList(DigitalDocument dd) {
+        long start = System.nanoTime();
         List<String> lstImages = MetadataManager.getAllMetadataValues(process.getId(), imageMetadata);
+        metrics.record(RunMetrics.Phase.METADATA_VALUES, start);
         log.debug("lstImages has size = " + lstImages.size());
 
         if (useUrl) {
@@ -333,6 +865,17 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         String firstImageName = inventoryNumber + " Nr_" + serialNumber;
         log.debug("firstPageName = " + firstImageName);
 
+        return sortImageNames(lstImages, firstImageName);
+    }
+
+    /**
+     * sort the image names, the image whose name starts with the given name comes first
+     * 
+     * @param lstImages image names in the order of the metadata, the list is changed
+     * @param firstImageName beginning of the name of the first image, spaces may also be given as _
+     * @return the sorted list of image names
+     */
+    static List<String> sortImageNames(List<String> lstImages, String firstImageName) {
         // locate the candidate name for the first image
         int index = getIndexOfImage(lstImages, firstImageName);
         if (index < 0) {
@@ -367,7 +910,7 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
      * @param imageName the image name that should be located in the list
      * @return the index of imageName in lstImages
      */
-    private int getIndexOfImage(List<String> lstImages, String imageName) {
+    private static int getIndexOfImage(List<String> lstImages, String imageName) {
         for (int i = 0; i < lstImages.size(); ++i) {
             String image = lstImages.get(i);
             if (image.startsWith(imageName)) {
@@ -416,22 +959,27 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
                 String message = "Could not find image " + strImage + " for process " + process.getTitel();
                 LogType logType = ignoreCopyErrors ? LogType.INFO : LogType.ERROR;
                 logBoth(process.getId(), logType, message);
+                metrics.addFailure();
                 return false;
             }
 
+            long start = System.nanoTime();
             DocStruct physical = dd.getPhysicalDocStruct();
             DocStruct logical = dd.getLogicalDocStruct();
             // remove old infos
             logical.removeReferenceTo(page); // no need to remove the child
             // add new infos
             physical.addChild(page); // there won't be any duplicates if page was already added as a child
+            pageIndex.add(page);
             logical.addReferenceTo(page, "logical_physical");
+            metrics.record(RunMetrics.Phase.DOCSTRUCTS, start);
 
             return true;
 
         } catch (TypeNotAllowedAsChildException e) {
             String message = "TypeNotAllowedAsChildException captured while processing: " + strImage;
             logBoth(process.getId(), LogType.ERROR, message);
+            metrics.addFailure();
             return false;
         }
     }
@@ -451,20 +999,149 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         // check if the image was already imported
         boolean imageExisting = checkExistenceOfImage(strImage, existingImages);
         if (imageExisting) {
-            String message = "A file with the Name: " + getImageNameFromString(strImage) + " already exists for this process.";
+            String message = "A file with the Name: " + imageNames.resolve(strImage).getImageName() + " already exists for this process.";
             logBoth(process.getId(), LogType.DEBUG, message);
+            if (useUrl && revalidate) {
+                // replace the file if it changed on the server, the page stays the same
+                revalidateExistingImage(strImage, strProcessImageFolder);
+            }
             // retrieve the existing page
-            return getExistingPage(strImage, dd, iPageNumber);
+            DocStruct page = getExistingPage(strImage, dd, iPageNumber);
+            if (page != null && !useUrl && sync) {
+                // replace the file if it changed in the import folder, the page stays the same
+                syncExistingPage(strImage, strProcessImageFolder, page);
+            }
+            return page;
         }
 
         // the image has not been imported yet, get and save it
         return getAndSavePage(strImage, strProcessImageFolder, dd, iPageNumber);
     }
 
+    /**
+     * download the image of an existing page again if it changed on the server
+     * 
+     * @param strUrl url of the image file
+     * @param strProcessImageFolder media folder of the process
+     */
+    private void revalidateExistingImage(String strUrl, String strProcessImageFolder) {
+        File fileCopy = getDownloadedImageFile(strUrl, strProcessImageFolder);
+        if (fileCopy == null) {
+            // the reason is already written to the journal, the former image stays as it is
+            metrics.addFailure();
+            updateFailed = true;
+            return;
+        }
+        if (unchangedDownloads.remove(strUrl)) {
+            unchangedImages.incrementAndGet();
+            return;
+        }
+
+        if (derivativeGenerator != null) {
+            derivativeGenerator.submit(fileCopy.toPath());
+        }
+        journal.addImage(LogType.DEBUG, "Images updated from the server", strUrl);
+        updatedImages.incrementAndGet();
+        imagesImported = true;
+        metrics.addImage();
+    }
+
     private boolean checkExistenceOfImage(String strImage, Set<String> existingImages) {
-        String imageName = getImageNameFromString(strImage);
+        return existingImages.contains(imageNames.resolve(strImage).getFileName());
+    }
+
+    /**
+     * import the image of an existing page again if it changed in the import folder, and point the page to the new file
+     * 
+     * @param strImage name of the image
+     * @param strProcessImageFolder media folder of the process
+     * @param page the existing page of the image
+     */
+    private void syncExistingPage(String strImage, String strProcessImageFolder, DocStruct page) {
+        try {
+            File fileCopy;
+            Future<File> copy = copies.remove(strImage);
+            if (copy != null) {
+                // the image was already compared and saved by the parallel copy stage
+                fileCopy = await(copy);
+            } else {
+                File file = getMatchedImageFile(strImage);
+                // an image that is not in the import folder anymore, e.g. after it was moved, stays as it is
+                fileCopy = file == null ? null : syncImageFile(strImage, strProcessImageFolder, file);
+            }
+            if (fileCopy == null) {
+                unchangedImages.incrementAndGet();
+                return;
+            }
+
+            if (!fileCopy.getName().equals(page.getImageName())) {
+                // the new file has another file extension, remove the old one and update the page
+                if (page.getImageName() != null) {
+                    Path oldFile = Paths.get(strProcessImageFolder, page.getImageName());
+                    String hash = storeLinks == null ? null : storeLinks.remove(page.getImageName());
+                    if (hash != null) {
+                        contentStore.release(hash, oldFile);
+                    }
+                    storageProvider.deleteFile(oldFile);
+                    if (derivativeGenerator != null) {
+                        derivativeGenerator.delete(page.getImageName());
+                    }
+                }
+                for (ContentFile cf : page.getAllContentFiles()) {
+                    cf.setLocation(SystemUtils.IS_OS_WINDOWS ? "file:" + fileCopy.getCanonicalPath() : "file:/" + fileCopy.getCanonicalPath());
+                }
+                page.setImageName(fileCopy.getName());
+            }
+            if (derivativeGenerator != null) {
+                derivativeGenerator.submit(fileCopy.toPath());
+            }
+            journal.addImage(LogType.DEBUG, "Images updated from the import folder", strImage);
+            updatedImages.incrementAndGet();
+            imagesImported = true;
+            metrics.addImage();
+
+        } catch (IOException e) {
+            String message = "failed to update the image " + strImage + " from the import folder: " + e.getMessage();
+            logBoth(process.getId(), LogType.ERROR, message);
+            metrics.addFailure();
+            updateFailed = true;
+        }
+    }
+
+    /**
+     * import an image again if the file in the import folder differs from the one in the media folder
+     * 
+     * @param strImage name of the image
+     * @param strProcessImageFolder media folder of the process
+     * @param file the matched image file in the import folder
+     * @return the new image file, or null if the image did not change
+     * @throws IOException
+     */
+    private File syncImageFile(String strImage, String strProcessImageFolder, File file) throws IOException {
+        Path existing = Paths.get(strProcessImageFolder, imageNames.resolve(strImage).getFileName());
+        if (!isChanged(file.toPath(), existing)) {
+            return null;
+        }
+        return saveImageFile(strImage, strProcessImageFolder, file);
+    }
 
-        return existingImages.contains(imageName.replace(" ", "_"));
+    /**
+     * compare an image file in the import folder with the one in the media folder
+     * 
+     * @param source the image file in the import folder
+     * @param existing the image file in the media folder
+     * @return true if the sizes differ, or if the checksums differ or the import folder has the newer file, false otherwise
+     * @throws IOException
+     */
+    private boolean isChanged(Path source, Path existing) throws IOException {
+        if (!Files.exists(existing) || Files.size(source) != Files.size(existing)) {
+            return true;
+        }
+        if (syncChecksum) {
+            return !ChecksumSidecar.compute(source).getSha256().equals(ChecksumSidecar.compute(existing).getSha256());
+        }
+        // imported images are at least as new as their original, so only a file replaced after the import is newer
+        return Files.getLastModifiedTime(source).compareTo(Files.getLastModifiedTime(existing)) > 0;
     }
 
     /**
@@ -477,25 +1154,21 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
      */
     private DocStruct getExistingPage(String strImage, DigitalDocument dd, int iPageNumber) {
         log.debug("getting existing image page: " + strImage);
-        String fullImageName = getImageNameFromString(strImage);
-        String filteredImageName = filterImageNameExtension(fullImageName);
-        String regex = getRegularExpression(filteredImageName);
-        List<DocStruct> pages = dd.getAllDocStructsByType("page");
-        for (DocStruct page : pages) {
-            String imageName = page.getImageName();
-            if (imageName.matches(regex)) {
-                // physical page number : update the number
-                MetadataType typePhysPage = prefs.getMetadataTypeByName("physPageNumber");
-                Metadata mdPhysPage = page.getAllMetadataByType(typePhysPage).get(0);
-                mdPhysPage.setValue(String.valueOf(iPageNumber));
-
-                // logical page number : update the file name
-                MetadataType typeLogPage = prefs.getMetadataTypeByName("logicalPageNumber");
-                Metadata mdLogPage = page.getAllMetadataByType(typeLogPage).get(0);
-                mdLogPage.setValue(fullImageName);
-
-                return page;
-            }
+        ImageNameMatcher.ImageName name = imageNames.resolve(strImage);
+        String fullImageName = name.getImageName();
+        DocStruct page = pageIndex.get(name.getKey());
+        if (page != null) {
+            // physical page number : update the number
+            MetadataType typePhysPage = prefs.getMetadataTypeByName("physPageNumber");
+            Metadata mdPhysPage = page.getAllMetadataByType(typePhysPage).get(0);
+            mdPhysPage.setValue(String.valueOf(iPageNumber));
+
+            // logical page number : update the file name
+            MetadataType typeLogPage = prefs.getMetadataTypeByName("logicalPageNumber");
+            Metadata mdLogPage = page.getAllMetadataByType(typeLogPage).get(0);
+            mdLogPage.setValue(fullImageName);
+
+            return page;
         }
 
         String message = "Unable to retrieve the existing page named: " + strImage;
@@ -538,19 +1211,23 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
     private DocStruct getAndSavePageFromUrl(String strImage, String processImageFolder, DigitalDocument dd, int iPageNumber)
             throws IOException, UGHException {
         // download the file from url
-        File fileCopy = downloadImageFile(strImage, processImageFolder);
+        File fileCopy = getDownloadedImageFile(strImage, processImageFolder);
         if (fileCopy == null) {
             // error occurred in the downloading phase
             return null;
         }
 
-        String imageName = getImageNameFromString(strImage);
+        String imageName = imageNames.resolve(strImage).getImageName();
+        if (derivativeGenerator != null) {
+            derivativeGenerator.submit(fileCopy.toPath());
+        }
 
         // create the page's DocStruct
         DocStruct dsPage = createDocStructPage(fileCopy, imageName, dd, iPageNumber);
 
         // set the flag
         imagesImported = true;
+        metrics.addImage();
 
         return dsPage;
     }
@@ -575,18 +1252,68 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         }
 
         // url is correctly formed, start to download
-        String imageName = getImageNameFromUrl(url);
+        String imageName = imageNames.resolve(strUrl).getImageName();
         Path targetPath = Path.of(processImageFolder, imageName);
 
-        try (ReadableByteChannel readableByteChannel = Channels.newChannel(url.openStream());
-                FileOutputStream outputStream = new FileOutputStream(targetPath.toString())) {
-
-            FileChannel fileChannel = outputStream.getChannel();
-            fileChannel.transferFrom(readableByteChannel, 0, Long.MAX_VALUE);
+        try {
+            long start = System.nanoTime();
+            DownloadManifest.Entry previous = revalidate ? manifest.get(url.toString()) : null;
+            DownloadManifest.Entry entry = null;
+            if (staging != null) {
+                entry = staging.takeDownload(url.toString(), targetPath);
+                if (entry != null) {
+                    journal.addImage(LogType.DEBUG, "Images taken from the staging area", strUrl);
+                }
+            }
+            if (entry == null && downloadCache != null && previous == null) {
+                // images that were downloaded for this process before are revalidated against the server instead
+                entry = downloadCache.get(url.toString(), targetPath);
+                DownloadManifest.Entry cached = entry;
+                if (cached != null && !downloadCache.isFresh(url.toString())) {
+                    // the cached image is validated with a conditional request, which only costs a 304 response if it did not change
+                    try {
+                        entry = downloader.download(url, targetPath, workFolder.resolve(imageName + ".part"), cached);
+                    } catch (IOException e) {
+                        // the cached image must not stay in the media folder unless the server confirmed it
+                        Files.deleteIfExists(targetPath);
+                        throw e;
+                    }
+                    if (entry == cached) {
+                        downloadCache.validated(url.toString());
+                    } else {
+                        metrics.addBytes(entry.getSize());
+                        cacheMisses.incrementAndGet();
+                        downloadCache.put(entry, targetPath);
+                        journal.addImage(LogType.DEBUG, "Images in the download cache changed on the server", strUrl);
+                    }
+                }
+                if (cached != null && entry == cached) {
+                    cacheHits.incrementAndGet();
+                    journal.addImage(LogType.DEBUG, "Images taken from the download cache", strUrl);
+                }
+            }
+            if (entry == null) {
+                // the partial file is kept if the download fails, so that the next attempt can resume it
+                entry = downloader.download(url, targetPath, workFolder.resolve(imageName + ".part"), previous);
+                if (entry != previous) {
+                    metrics.addBytes(entry.getSize());
+                    if (downloadCache != null) {
+                        cacheMisses.incrementAndGet();
+                        downloadCache.put(entry, targetPath);
+                    }
+                } else {
+                    unchangedDownloads.add(strUrl);
+                }
+            }
+            metrics.record(RunMetrics.Phase.TRANSFER, start);
+            manifest.put(entry);
+            if (checksums != null) {
+                checksums.put(new ChecksumSidecar.Entry(imageName, entry.getSize(), entry.getMd5(), entry.getSha256()));
+            }
             return new File(targetPath.toString());
 
         } catch (IOException e) {
-            String message = "failed to download the image from " + strUrl;
+            String message = "failed to download the image from " + strUrl + ": " + e.getMessage();
             logBoth(process.getId(), LogType.ERROR, message);
             return null;
         }
@@ -606,46 +1333,104 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
     private DocStruct getAndSavePageFromFolder(String strImage, String strProcessImageFolder, DigitalDocument dd, int iPageNumber)
             throws IOException, UGHException {
         log.debug("getting and saving new page: " + strImage);
-        // get matched image file
-        File file = getMatchedImageFile(strImage, this.folder);
-        if (file == null) {
-            // no file found in the import folder
-            String message = "There was no file with the name: " + strImage + " in the images folder.";
-            logBoth(process.getId(), LogType.DEBUG, message);
-            return null;
+        File fileCopy;
+        Future<File> copy = copies.remove(strImage);
+        if (copy != null) {
+            // the image file was already saved by the parallel copy stage
+            fileCopy = await(copy);
+        } else {
+            // get matched image file
+            File file = getMatchedImageFile(strImage);
+            if (file == null) {
+                // no file found in the import folder
+                String message = "There was no file with the name: " + strImage + " in the images folder.";
+                logBoth(process.getId(), LogType.DEBUG, message);
+                return null;
+            }
+            if (!file.exists()) {
+                String message = "There was an error processing the file: " + strImage + " in the images folder.";
+                logBoth(process.getId(), LogType.ERROR, message);
+                return null;
+            }
+
+            // save the image file
+            fileCopy = saveImageFile(strImage, strProcessImageFolder, file);
         }
-        if (!file.exists()) {
-            String message = "There was an error processing the file: " + strImage + " in the images folder.";
-            logBoth(process.getId(), LogType.ERROR, message);
-            return null;
+        if (derivativeGenerator != null) {
+            derivativeGenerator.submit(fileCopy.toPath());
         }
 
-        // save the image file
-        File fileCopy = saveImageFile(strImage, strProcessImageFolder, file);
-
         // create the page's DocStruct
         DocStruct dsPage = createDocStructPage(fileCopy, strImage, dd, iPageNumber);
 
         // set the flag
         imagesImported = true;
+        metrics.addImage();
 
         return dsPage;
     }
 
+    /**
+     * wait for a file operation that runs in a thread pool
+     * 
+     * @param future the pending operation
+     * @return the result of the operation
+     * @throws IOException if the operation failed or was interrupted
+     */
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a file operation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * move the staged copy of an image into the process folder instead of reading it from the import folder again
+     * 
+     * @param strImage name of the image
+     * @param pathSource the image file in the import folder
+     * @param staged the staged copy of the image file
+     * @param pathDest the image file in the process folder
+     * @return the image file in the process folder
+     * @throws IOException
+     */
+    private File saveStagedImageFile(String strImage, Path pathSource, Path staged, Path pathDest) throws IOException {
+        long start = System.nanoTime();
+        // the staging folder is usually on another file system, the image must not show up incomplete under its final name
+        LocalFileTransfer.publish(staged, pathDest);
+        if ("move".equals(this.mode)) {
+            // the original file would have been moved away
+            storageProvider.deleteFile(pathSource);
+            folderIndex.remove(pathSource);
+        }
+        metrics.record(RunMetrics.Phase.TRANSFER, start);
+        journal.addImage(LogType.DEBUG, "Images taken from the staging area", strImage);
+
+        if (checksums != null) {
+            checksums.put(ChecksumSidecar.compute(pathDest));
+        }
+        return new File(pathDest.toString());
+    }
+
     /**
      * get the image file from the import folder that matches the input name
      * 
      * @param strImage name of the image
-     * @param folder path of the import folder
      * @return the image file as a File object
      */
-    private File getMatchedImageFile(String strImage, String folder) {
-        String regex = getRegularExpression(strImage);
-        List<Path> imagePaths = storageProvider.listFiles(folder,
-                path -> path.getFileName().toString().matches(regex) || path.getFileName().toString().equalsIgnoreCase(strImage)
-                        || FilenameUtils.getBaseName(path.getFileName().toString()).equals(FilenameUtils.getBaseName(strImage)));
+    private File getMatchedImageFile(String strImage) {
+        long start = System.nanoTime();
+        Path imagePath = folderIndex.find(imageNames.resolve(strImage), ignoreFileExtension);
+        metrics.record(RunMetrics.Phase.MATCHING, start);
         // take the first match if there is any
-        return imagePaths.isEmpty() ? null : imagePaths.get(0).toFile();
+        return imagePath == null ? null : imagePath.toFile();
     }
 
     /**
@@ -667,16 +1452,74 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         // replace spaces with "_"
         String fileName = file.getName().replace(" ", "_");
         Path pathDest = Paths.get(strProcessImageFolder, fileName);
+        Path staged = staging != null ? staging.getCopy(pathSource) : null;
+        if (staged != null) {
+            return saveStagedImageFile(strImage, pathSource, staged, pathDest);
+        }
+        // checksums are computed while copying locally, other files need to be read once
+        MessageDigest[] digests = checksums != null ? ChecksumSidecar.newDigests() : new MessageDigest[0];
+        boolean copied = false;
+        // true if the file was copied by the storage provider, which does not compute checksums
+        boolean copiedByProvider = false;
+        long start = System.nanoTime();
 
         switch (this.mode) {
             case "move":
                 storageProvider.move(pathSource, pathDest);
-                Helper.addMessageToProcessJournal(process.getId(), LogType.DEBUG, "Image moved into process folder: " + strImage);
+                folderIndex.remove(file.toPath());
+                journal.addImage(LogType.DEBUG, "Images moved into the process folder", strImage);
+                break;
+            case "hardlink":
+            case "reflink":
+                boolean linked = "hardlink".equals(this.mode) ? LocalFileTransfer.hardlink(pathSource, pathDest)
+                        : LocalFileTransfer.reflink(pathSource, pathDest);
+                if (linked) {
+                    journal.addImage(LogType.DEBUG, "Images linked into the process folder", strImage);
+                    break;
+                }
+                // e.g. the import folder is on another device, copy the file instead
+                log.debug("Cannot create a " + this.mode + " for " + pathSource + ", copying it instead.");
+                LocalFileTransfer.copy(pathSource, pathDest, digests);
+                copied = true;
+                journal.addImage(LogType.DEBUG, "Images copied into the process folder", strImage);
                 break;
             case "copy":
             default:
-                storageProvider.copyFile(pathSource, pathDest);
-                Helper.addMessageToProcessJournal(process.getId(), LogType.DEBUG, "Image copied into process folder: " + strImage);
+                if (contentStore != null) {
+                    // keep the image once in the store and link it into the media folder
+                    String hash = contentStore.store(pathSource, pathDest, process.getId());
+                    String previousHash = storeLinks.put(fileName, hash);
+                    if (previousHash != null && !previousHash.equals(hash)) {
+                        // the image was replaced, e.g. by a sync with the import folder
+                        contentStore.release(previousHash, pathDest);
+                    }
+                } else if (localMedia) {
+                    LocalFileTransfer.copy(pathSource, pathDest, digests);
+                    copied = true;
+                } else {
+                    // media folders in S3 are only reachable through the storage provider
+                    storageProvider.copyFile(pathSource, pathDest);
+                    copiedByProvider = true;
+                }
+                journal.addImage(LogType.DEBUG, "Images copied into the process folder", strImage);
+        }
+
+        metrics.record(RunMetrics.Phase.TRANSFER, start);
+        if (copied || copiedByProvider) {
+            metrics.addBytes(Files.size(pathSource));
+        }
+
+        if (checksums != null) {
+            if (copied) {
+                checksums.put(ChecksumSidecar.toEntry(pathDest, digests));
+            } else if (copiedByProvider) {
+                // read the copy itself, so that a broken transfer to S3 does not go unnoticed
+                try (InputStream in = storageProvider.newInputStream(pathDest)) {
+                    checksums.put(ChecksumSidecar.compute(in, fileName));
+                }
+            } else {
+                checksums.put(ChecksumSidecar.compute(pathDest));
+            }
         }
 
         return new File(pathDest.toString());
@@ -694,6 +1537,7 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
      * @throws IOException
      */
     private DocStruct createDocStructPage(File fileCopy, String strImage, DigitalDocument dd, int iPageNumber) throws UGHException, IOException {
+        long start = System.nanoTime();
         DocStructType pageType = prefs.getDocStrctTypeByName("page");
         DocStruct dsPage = dd.createDocStruct(pageType);
 
@@ -718,73 +1562,26 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         }
         dsPage.addContentFile(cf);
         dsPage.setImageName(fileCopy.getName());
+        metrics.record(RunMetrics.Phase.DOCSTRUCTS, start);
 
         return dsPage;
     }
 
     /**
-     * get the proper regular expression
-     * 
-     * @param strImage name of the image
-     * @return the proper regular expression as a string
-     */
-    private String getRegularExpression(String strImage) {
-        String imageName = getImageNameFromString(strImage);
-        String base = "\\Q" + imageName + "\\E";
-
-        return base + (ignoreFileExtension ? "\\..*" : "");
-    }
-
-    /**
-     * get the image name from a string
-     * 
-     * @param strUrl a string that is possibly a url
-     * @return the file name of the url if it is really a url string, otherwise the input string itself
-     */
-    private String getImageNameFromString(String strUrl) {
-        try {
-            URL url = new URL(strUrl);
-            return getImageNameFromUrl(url);
-
-        } catch (MalformedURLException e) {
-            String message = "The input string is not a URL, returning itself instead.";
-            logBoth(process.getId(), LogType.DEBUG, message);
-            return strUrl;
-        }
-    }
-
-    /**
-     * get the image name from a URL object
-     * 
-     * @param url the URL object
-     * @return the full image name including the configured image extension
-     */
-    private String getImageNameFromUrl(URL url) {
-        String urlFileName = url.getFile();
-        log.debug("urlFileName = " + urlFileName);
-
-        String imageName = urlFileName.replaceAll("\\W", "_") + imageExtension;
-        log.debug("imageName = " + imageName);
-
-        return imageName;
-    }
-
-    /**
-     * filter the extension of the input image name if necessary
+     * hand the export of the process over to the export queue, or export it right away if the queue is full
      * 
-     * @param imageName image name that potentially needs a filtering
-     * @return image name where spaces are replaced with _, and if configured so, then also file extension removed
+     * @param p Goobi process
+     * @param exportImage true if the images should be exported, false otherwise
+     * @return true if the export is queued or the process is successfully exported, false otherwise
      */
-    private String filterImageNameExtension(String imageName) {
-        imageName = imageName.replace(" ", "_");
-
-        if (!ignoreFileExtension) {
-            return imageName;
+    private boolean queueExport(Process p, boolean exportImage) {
+        ExportQueue queue = ExportQueue.getInstance(exportThreads, exportQueueSize, journalLevel);
+        if (queue.submit(p, exportImage)) {
+            logBoth(p.getId(), LogType.INFO, "Export queued for process with ID " + p.getId());
+            return true;
         }
-
-        // file extension should be ignored
-        int index = imageName.lastIndexOf(".");
-        return index > 0 ? imageName.substring(0, index) : imageName;
+        logBoth(p.getId(), LogType.WARN, "The export queue is full, exporting the process with ID " + p.getId() + " right away.");
+        return exportProcess(p, exportImage);
     }
 
     /**
@@ -792,18 +1589,14 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
      * 
      * @param p Goobi process
      * @param exportImage true if the images should be exported, false otherwise
-     * @return true if the process is successfully exported, false if any exceptions should happen
+     * @return true if the process is successfully exported, false if the export fails or any exceptions should happen
      */
     private boolean exportProcess(Process p, boolean exportImage) {
         try {
-            IExportPlugin export = getExportPluginOfProcess(p);
-
-            if (export == null) {
-                export = new ExportDms();
+            if (!ExportQueue.startExport(p, exportImage)) {
+                logBoth(p.getId(), LogType.ERROR, "Export failed for process with ID " + p.getId());
+                return false;
             }
-            export.setExportFulltext(false);
-            export.setExportImages(exportImage);
-            export.startExport(p);
 
             String message = "Export finished inside of catalogue poller for process with ID " + p.getId();
             logBoth(p.getId(), LogType.DEBUG, message);
@@ -815,28 +1608,6 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
         }
     }
 
-    /**
-     * get the export plugin for this process
-     * 
-     * @param p Goobi process
-     * @return the export plugin for this process if there is any found for this process, otherwise null
-     */
-    private IExportPlugin getExportPluginOfProcess(Process p) {
-        IExportPlugin export = null;
-        String pluginName = ProcessManager.getExportPluginName(p.getId());
-
-        if (StringUtils.isNotEmpty(pluginName)) {
-            try {
-                export = (IExportPlugin) PluginLoader.getPluginByTitle(PluginType.Export, pluginName);
-            } catch (Exception e) {
-                log.error("Can't load export plugin, use default plugin", e);
-                export = new ExportDms();
-            }
-        }
-
-        return export;
-    }
-
     /**
      * print logs to terminal and journal
      * 
@@ -861,7 +1632,8 @@ public class FetchImagesFromMetadataStepPlugin implements IStepPluginVersion2 {
                 break;
         }
         if (processId > 0) {
-            Helper.addMessageToProcessJournal(processId, logType, logMessage);
+            // written to the process journal at the end of the run
+            journal.add(logType, logMessage);
         }
     }
 
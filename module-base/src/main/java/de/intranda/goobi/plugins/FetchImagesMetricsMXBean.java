@@ -0,0 +1,58 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.Map;
+
+/**
+ * Totals of all runs of the plugin since the start of the JVM, registered as de.intranda.goobi.plugins:type=FetchImagesFromMetadata.
+ */
+public interface FetchImagesMetricsMXBean {
+
+    /**
+     * get the number of finished runs
+     */
+    long getRuns();
+
+    /**
+     * get the number of imported images
+     */
+    long getImages();
+
+    /**
+     * get the number of images that could not be imported
+     */
+    long getFailures();
+
+    /**
+     * get the number of bytes that were downloaded or copied
+     */
+    long getBytes();
+
+    /**
+     * get the milliseconds spent in each phase, mapped by the phase name
+     */
+    Map<String, Long> getPhaseMillis();
+
+    /**
+     * get the summary of the last finished run
+     */
+    String getLastRunSummary();
+}
@@ -0,0 +1,113 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker for one host, shared by all plugin runs of this JVM.
+ *
+ * After a configured number of failed requests in a row the breaker opens and all further requests to the host are rejected at once. When the
+ * cooldown has passed, one single request is let through as a trial: if it succeeds, the breaker closes again, otherwise it stays open for another
+ * cooldown.
+ */
+public class HostCircuitBreaker {
+
+    private static final Map<String, HostCircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    // number of failed requests in a row
+    private int failures = 0;
+    // time in milliseconds until the breaker stays open, 0 if it is closed
+    private long openUntil = 0;
+    // true if the trial request after the cooldown is running
+    private boolean trialRunning = false;
+
+    /**
+     * get the circuit breaker of a host
+     *
+     * @param host name of the host
+     * @return the shared circuit breaker of this host
+     */
+    public static HostCircuitBreaker forHost(String host) {
+        return BREAKERS.computeIfAbsent(String.valueOf(host).toLowerCase(Locale.ROOT), h -> new HostCircuitBreaker());
+    }
+
+    /**
+     * check if a request may be sent to the host
+     *
+     * @return true if the breaker is closed or if this is the trial request after the cooldown, false otherwise
+     */
+    public synchronized boolean allowRequest() {
+        if (openUntil == 0) {
+            return true;
+        }
+        if (System.currentTimeMillis() < openUntil || trialRunning) {
+            return false;
+        }
+        trialRunning = true;
+        return true;
+    }
+
+    /**
+     * check if the breaker is open at the moment
+     *
+     * @return true if requests to the host are rejected, false otherwise
+     */
+    public synchronized boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    /**
+     * report a successful request, which closes the breaker
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        openUntil = 0;
+        trialRunning = false;
+    }
+
+    /**
+     * report a request that tells nothing about the state of the host, e.g. an interrupted request or an invalid response. If it was the trial
+     * request, the next request may try again.
+     */
+    public synchronized void recordNeutral() {
+        trialRunning = false;
+    }
+
+    /**
+     * report a failed request
+     *
+     * @param threshold number of failed requests in a row that open the breaker
+     * @param cooldown milliseconds the breaker stays open
+     * @return true if the breaker was closed before and is open now, false otherwise
+     */
+    public synchronized boolean recordFailure(int threshold, long cooldown) {
+        failures++;
+        boolean wasClosed = openUntil == 0;
+        if (trialRunning || failures >= threshold) {
+            openUntil = System.currentTimeMillis() + cooldown;
+            trialRunning = false;
+            return wasClosed;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * Signals that a server answered a download request with an HTTP status other than success.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    @Getter
+    private final int status;
+    // seconds the server asked to wait before the next request, -1 if not given
+    @Getter
+    private final long retryAfter;
+
+    public HttpStatusException(String message, int status, long retryAfter) {
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * check if the request may succeed if it is sent again later
+     *
+     * @return true for 429 Too Many Requests and for server errors, false otherwise
+     */
+    public boolean isTransient() {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * check if the server signals that it is overloaded
+     *
+     * @return true for 429 Too Many Requests, 503 Service Unavailable and 504 Gateway Timeout, false otherwise
+     */
+    public boolean isOverload() {
+        return status == 429 || status == 503 || status == 504;
+    }
+}
@@ -0,0 +1,839 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Downloads images with a shared {@link HttpClient}, so that connections are pooled and kept alive across all images and all plugin runs. HTTP/2 is
+ * used whenever the server supports it.
+ *
+ * The timeouts are configured in seconds:
+ * <ul>
+ * <li>connectTimeout: maximum time to establish a connection</li>
+ * <li>readTimeout: maximum time to wait for the response or for the next data of the response body</li>
+ * <li>totalTimeout: maximum time for the complete download of one image, 0 for no limit</li>
+ * </ul>
+ * The number of downloads running at the same time against the same host is limited by maxConnectionsPerHost. This limit is shared by all plugin
+ * runs of this JVM, the first configuration that accesses a host defines it. All requests and received bytes are also counted against the limits
+ * of the {@link DownloadGovernor}. With adaptiveConnections, the number of downloads per host is an {@link AdaptiveConcurrencyLimit} instead, which
+ * never exceeds maxConnectionsPerHost.
+ *
+ * The data is written into a partial file first. If a download breaks off, the partial file is kept and the next attempt asks the server only for
+ * the missing bytes using a Range request. The ETag or Last-Modified value of the response that started the partial file is kept next to it and sent
+ * as If-Range, so that the server sends the complete file if it changed in the meantime. A partial file without such a validator is discarded.
+ * Only a download whose length matches the Content-Length announced by the server is moved to its final name, which is done atomically, so that an
+ * incomplete image never shows up in the media folder.
+ *
+ * Failed downloads are retried with an exponential backoff and random jitter. A Retry-After header sent along with 429 or 503 responses is
+ * respected. Every host has a {@link HostCircuitBreaker}, so that an unreachable host fails fast instead of timing out for every single image.
+ *
+ * If the entry of a former download is passed in, a conditional request with If-None-Match and If-Modified-Since is sent, so that an unchanged image
+ * only costs a 304 response.
+ *
+ * The MD5 and SHA-256 checksums are computed while the data arrives. If the server sends a Digest, Repr-Digest or Content-MD5 header, the checksum
+ * of the download is compared with it, and a mismatch counts as a failed attempt.
+ */
+@Log4j2
+public class ImageDownloader {
+
+    // interval to check the timeouts of a running download, in milliseconds
+    private static final long CHECK_INTERVAL = 500;
+
+    // shared clients, one per connect timeout
+    private static final Map<Integer, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+    // permits per host
+    private static final Map<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<>();
+    // requests the next data of downloads that wait for the bandwidth limits, so that the threads of the HTTP client never sleep
+    private static final ScheduledExecutorService THROTTLE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fetch-images-download-throttle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int totalTimeout;
+    private final int maxConnectionsPerHost;
+    // true if the number of connections per host adapts itself up to maxConnectionsPerHost
+    private final boolean adaptiveConnections;
+    // number of retries after the first failed attempt
+    private final int retries;
+    // delay before the first retry and maximum delay between two attempts, in milliseconds
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    // number of failed requests in a row that open the circuit breaker of a host, and milliseconds it stays open
+    private final int breakerThreshold;
+    private final long breakerCooldown;
+    // additional bandwidth limit of the caller, null for none
+    private final DownloadGovernor.TokenBucket bandwidthLimit;
+
+    // statistics of this downloader
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private final AtomicInteger breakerTrips = new AtomicInteger();
+    private final AtomicInteger rejectedByBreaker = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final Set<String> adaptiveHosts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * read the download settings from the download element of the plugin configuration
+     *
+     * @param config configuration block of the plugin
+     */
+    public ImageDownloader(SubnodeConfiguration config) {
+        this(config, null);
+    }
+
+    /**
+     * read the download settings from the download element of the plugin configuration and keep an additional bandwidth limit
+     *
+     * @param config configuration block of the plugin
+     * @param bandwidthLimit limit of the caller that applies to all downloads of this downloader in addition to the configured limits, or null
+     */
+    ImageDownloader(SubnodeConfiguration config, DownloadGovernor.TokenBucket bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+        this.connectTimeout = Math.max(1, config.getInt("download/@connectTimeout", 10));
+        this.readTimeout = Math.max(1, config.getInt("download/@readTimeout", 60));
+        this.totalTimeout = Math.max(0, config.getInt("download/@totalTimeout", 3600));
+        this.maxConnectionsPerHost = Math.max(1, config.getInt("download/@maxConnectionsPerHost", 4));
+        this.adaptiveConnections = config.getBoolean("download/@adaptiveConnections", false);
+        this.retries = Math.max(0, config.getInt("download/@retries", 3));
+        this.retryDelay = TimeUnit.SECONDS.toMillis(Math.max(1, config.getInt("download/@retryDelay", 1)));
+        this.maxRetryDelay = Math.max(retryDelay, TimeUnit.SECONDS.toMillis(config.getInt("download/@maxRetryDelay", 60)));
+        this.breakerThreshold = Math.max(1, config.getInt("download/@breakerThreshold", 5));
+        this.breakerCooldown = TimeUnit.SECONDS.toMillis(Math.max(1, config.getInt("download/@breakerCooldown", 60)));
+        DownloadGovernor.configure(config);
+    }
+
+    /**
+     * get a summary of the retries, circuit breaker events, waits for the download limits and adapted connection limits of this downloader
+     *
+     * @return the summary, or null if there is nothing to report
+     */
+    public String getSummary() {
+        if (retryCount.get() == 0 && breakerTrips.get() == 0 && rejectedByBreaker.get() == 0 && notModified.get() == 0 && throttledNanos.get() == 0
+                && adaptiveHosts.isEmpty()) {
+            return null;
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append("Download summary: " + retryCount.get() + " retries, " + breakerTrips.get() + " circuit breaker trips, "
+                + rejectedByBreaker.get() + " downloads rejected by open circuit breakers, " + notModified.get() + " images unchanged on the server, "
+                + String.format(Locale.ROOT, "%.1f", throttledNanos.get() / 1e9) + " s waited for the download limits.");
+        if (!adaptiveHosts.isEmpty()) {
+            summary.append(" Connections per host:");
+            for (String host : new TreeSet<>(adaptiveHosts)) {
+                summary.append(' ').append(host).append('=').append(AdaptiveConcurrencyLimit.forHost(host).getLimit(maxConnectionsPerHost));
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * download the file behind the URL into a partial file and move it to the target when it is complete
+     *
+     * @param url URL of the file
+     * @param target path of the downloaded file
+     * @param partFile path of the partial file, a download that broke off before is resumed from there
+     * @param previous manifest entry of the former download of this URL, or null to download it unconditionally
+     * @return the manifest entry of the downloaded file, or the previous entry if the file did not change on the server
+     * @throws IOException if the download failed or timed out
+     */
+    public DownloadManifest.Entry download(URL url, Path target, Path partFile, DownloadManifest.Entry previous) throws IOException {
+        HostCircuitBreaker breaker = HostCircuitBreaker.forHost(url.getHost());
+        int attempt = 0;
+        while (true) {
+            if (!breaker.allowRequest()) {
+                rejectedByBreaker.incrementAndGet();
+                throw new IOException("the circuit breaker for " + url.getHost() + " is open after repeated failures, skipping " + url);
+            }
+
+            // every path out of the attempt has to resolve it for the breaker, otherwise a trial request would block the host for good
+            boolean resolved = false;
+            try {
+                DownloadManifest.Entry entry = downloadOnce(url, target, partFile, previous);
+                breaker.recordSuccess();
+                resolved = true;
+                return entry;
+
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                boolean hostFailure = !(e instanceof HttpStatusException) || ((HttpStatusException) e).isTransient();
+                if (hostFailure) {
+                    resolved = true;
+                    if (breaker.recordFailure(breakerThreshold, breakerCooldown)) {
+                        breakerTrips.incrementAndGet();
+                        log.warn("Opened the circuit breaker for " + url.getHost() + " after repeated failures.");
+                    }
+                } else {
+                    // the host answered, e.g. with 404 Not Found, so it is reachable
+                    breaker.recordSuccess();
+                    resolved = true;
+                }
+
+                long delay = getRetryDelay(e, attempt);
+                if (!hostFailure || attempt >= retries || delay < 0 || breaker.isOpen()) {
+                    throw e;
+                }
+                attempt++;
+                retryCount.incrementAndGet();
+                log.debug("Retrying the download of " + url + " in " + delay + " ms after: " + e.getMessage());
+                sleep(delay);
+
+            } finally {
+                if (!resolved) {
+                    breaker.recordNeutral();
+                }
+            }
+        }
+    }
+
+    /**
+     * get the time to wait before the next attempt
+     *
+     * @param e the exception of the failed attempt
+     * @param attempt number of retries so far
+     * @return the delay in milliseconds, or -1 if the server asked to wait longer than the configured maximum delay
+     */
+    private long getRetryDelay(IOException e, int attempt) {
+        if (e instanceof HttpStatusException && ((HttpStatusException) e).getRetryAfter() >= 0) {
+            long retryAfter = TimeUnit.SECONDS.toMillis(((HttpStatusException) e).getRetryAfter());
+            return retryAfter > maxRetryDelay ? -1 : retryAfter;
+        }
+        // exponential backoff with jitter between half and full delay
+        long delay = Math.min(maxRetryDelay, retryDelay << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static void sleep(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the next download attempt");
+        }
+    }
+
+    private DownloadManifest.Entry downloadOnce(URL url, Path target, Path partFile, DownloadManifest.Entry previous) throws IOException {
+        String host = String.valueOf(url.getHost()).toLowerCase(Locale.ROOT);
+        AdaptiveConcurrencyLimit adaptiveLimit = adaptiveConnections ? AdaptiveConcurrencyLimit.forHost(host) : null;
+        Semaphore permits = adaptiveLimit == null ? HOST_PERMITS.computeIfAbsent(host, h -> new Semaphore(maxConnectionsPerHost, true)) : null;
+        try {
+            if (adaptiveLimit != null) {
+                adaptiveHosts.add(host);
+                adaptiveLimit.acquire(maxConnectionsPerHost);
+            } else {
+                permits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a connection to " + url.getHost());
+        }
+
+        try {
+            Files.createDirectories(partFile.getParent());
+            String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+            Transfer transfer;
+            if ("http".equals(protocol) || "https".equals(protocol)) {
+                DownloadManifest.Entry validators = previous != null && Files.exists(target) ? previous : null;
+                transfer = downloadViaHttp(url, partFile, true, validators);
+                if (transfer == null) {
+                    notModified.incrementAndGet();
+                    if (adaptiveLimit != null) {
+                        adaptiveLimit.recordSuccess(-1, 0, maxConnectionsPerHost);
+                    }
+                    return previous;
+                }
+            } else {
+                transfer = downloadViaConnection(url, partFile);
+            }
+            if (adaptiveLimit != null) {
+                adaptiveLimit.recordSuccess(transfer.latency, transfer.received, maxConnectionsPerHost);
+            }
+            long size = Files.size(partFile);
+            LocalFileTransfer.publish(partFile, target);
+            Files.deleteIfExists(getValidatorFile(partFile));
+            return new DownloadManifest.Entry(url.toString(), target.getFileName().toString(), transfer.etag, transfer.lastModified, size,
+                    HexFormat.of().formatHex(transfer.sha256), HexFormat.of().formatHex(transfer.md5));
+        } catch (IOException e) {
+            if (adaptiveLimit != null && isOverload(e)) {
+                adaptiveLimit.recordOverload();
+            }
+            throw e;
+        } finally {
+            if (adaptiveLimit != null) {
+                adaptiveLimit.release();
+            } else {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * check if a failed attempt indicates that the host is overloaded
+     */
+    private static boolean isOverload(IOException e) {
+        return e instanceof HttpTimeoutException || (e instanceof HttpStatusException && ((HttpStatusException) e).isOverload());
+    }
+
+    /**
+     * download the file via HTTP into the partial file
+     *
+     * @return the finished transfer, or null if the server reported that the file did not change since the previous download
+     */
+    private Transfer downloadViaHttp(URL url, Path partFile, boolean resume, DownloadManifest.Entry previous) throws IOException {
+        long existing = 0;
+        String validator = null;
+        if (resume && Files.exists(partFile)) {
+            validator = readValidator(partFile);
+            if (validator == null) {
+                // without a validator, the server cannot tell whether the partial file still belongs to the file it has now
+                discardPartFile(partFile);
+            } else {
+                existing = Files.size(partFile);
+            }
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(toUri(url))
+                .timeout(Duration.ofSeconds(readTimeout))
+                .GET();
+        if (existing > 0) {
+            log.debug("resuming the download of " + url + " after " + existing + " bytes");
+            builder.header("Range", "bytes=" + existing + "-");
+            // the server sends the complete file instead if it changed since the partial file was started
+            builder.header("If-Range", validator);
+        }
+        if (previous != null && previous.getEtag() != null) {
+            builder.header("If-None-Match", previous.getEtag());
+        }
+        if (previous != null && previous.getLastModified() != null) {
+            builder.header("If-Modified-Since", previous.getLastModified());
+        }
+
+        throttledNanos.addAndGet(DownloadGovernor.acquireRequest(url.getHost()));
+        Transfer transfer = new Transfer(partFile, existing, url.getHost(), throttledNanos, bandwidthLimit);
+        try {
+            CompletableFuture<HttpResponse<Void>> future = getClient().sendAsync(builder.build(), transfer::subscribe);
+            HttpResponse<Void> response = await(future, transfer.lastProgress, url);
+            int status = response.statusCode();
+            if (status == 304 && previous != null) {
+                // unchanged, a partial file of an earlier attempt is of no use
+                transfer.close();
+                discardPartFile(partFile);
+                return null;
+            }
+            if ((status == 416 && existing > 0) || transfer.rangeMismatch) {
+                // the partial file does not fit to the current file on the server, start again
+                transfer.close();
+                discardPartFile(partFile);
+                return downloadViaHttp(url, partFile, false, previous);
+            }
+            if (status / 100 != 2) {
+                if (status / 100 == 4) {
+                    // the file is not available, a partial file is of no use anymore
+                    transfer.close();
+                    discardPartFile(partFile);
+                }
+                throw new HttpStatusException("server responded with HTTP status " + status + " for " + url, status,
+                        parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null)));
+            }
+            transfer.verifyLength(url);
+            transfer.finish();
+            verifyChecksums(transfer, response, url);
+            return transfer;
+        } finally {
+            transfer.close();
+        }
+    }
+
+    private Transfer downloadViaConnection(URL url, Path partFile) throws IOException {
+        // other protocols like file or ftp
+        throttledNanos.addAndGet(DownloadGovernor.acquireRequest(url.getHost()));
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(connectTimeout));
+        connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(readTimeout));
+        Transfer transfer = new Transfer(partFile, 0, url.getHost(), throttledNanos, bandwidthLimit);
+        InputStream body = DownloadGovernor.throttle(connection.getInputStream(), url.getHost(), bandwidthLimit);
+        try (InputStream in = new DigestInputStream(new DigestInputStream(body, transfer.sha256Digest), transfer.md5Digest)) {
+            long length = Files.copy(in, partFile, StandardCopyOption.REPLACE_EXISTING);
+            transfer.received = length;
+            long expected = connection.getContentLengthLong();
+            if (expected >= 0 && length != expected) {
+                throw new IOException("incomplete download of " + url + ": received " + length + " of " + expected + " bytes");
+            }
+        }
+        transfer.finish();
+        return transfer;
+    }
+
+    /**
+     * compare the checksums of the transfer with the ones sent by the server, if there are any
+     */
+    private static void verifyChecksums(Transfer transfer, HttpResponse<?> response, URL url) throws IOException {
+        Map<String, byte[]> expected = new HashMap<>();
+        // RFC 3230 instance digests and RFC 9530 representation digests both cover the complete file, also for partial responses
+        for (String header : new String[] { "Digest", "Repr-Digest" }) {
+            for (String value : response.headers().allValues(header)) {
+                for (String element : value.split(",")) {
+                    int equals = element.indexOf('=');
+                    if (equals > 0) {
+                        String algorithm = element.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+                        String encoded = element.substring(equals + 1).trim();
+                        if (encoded.length() > 1 && encoded.startsWith(":") && encoded.endsWith(":")) {
+                            encoded = encoded.substring(1, encoded.length() - 1);
+                        }
+                        putDecoded(expected, algorithm, encoded);
+                    }
+                }
+            }
+        }
+        if (response.statusCode() == 200) {
+            // Content-MD5 only covers the body of this response
+            response.headers().firstValue("Content-MD5").ifPresent(value -> putDecoded(expected, "md5", value.trim()));
+        }
+
+        byte[] sha256 = expected.get("sha-256");
+        byte[] md5 = expected.get("md5");
+        if ((sha256 != null && !MessageDigest.isEqual(sha256, transfer.sha256)) || (md5 != null && !MessageDigest.isEqual(md5, transfer.md5))) {
+            discardPartFile(transfer.partFile);
+            throw new IOException("the checksum of the download does not match the checksum sent by the server: " + url);
+        }
+    }
+
+    private static void putDecoded(Map<String, byte[]> checksums, String algorithm, String encoded) {
+        try {
+            checksums.put(algorithm, Base64.getDecoder().decode(encoded));
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring the invalid " + algorithm + " checksum " + encoded);
+        }
+    }
+
+    /**
+     * get the file that holds the validator of the response that started a partial file
+     */
+    private static Path getValidatorFile(Path partFile) {
+        return partFile.resolveSibling(partFile.getFileName() + ".validator");
+    }
+
+    /**
+     * read the validator of a partial file
+     *
+     * @return the ETag or Last-Modified value for If-Range, or null if there is none
+     */
+    private static String readValidator(Path partFile) throws IOException {
+        Path file = getValidatorFile(partFile);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        String validator = Files.readString(file, StandardCharsets.UTF_8).trim();
+        return validator.isEmpty() ? null : validator;
+    }
+
+    /**
+     * delete a partial file together with its validator
+     */
+    private static void discardPartFile(Path partFile) throws IOException {
+        Files.deleteIfExists(partFile);
+        Files.deleteIfExists(getValidatorFile(partFile));
+    }
+
+    /**
+     * get the validator that may be sent in an If-Range header, weak ETags are not allowed there
+     *
+     * @param etag the ETag sent by the server, or null
+     * @param lastModified the Last-Modified value sent by the server, or null
+     * @return the strong ETag, otherwise the Last-Modified value, or null if there is neither
+     */
+    static String getRangeValidator(String etag, String lastModified) {
+        if (etag != null && !etag.isBlank() && !etag.startsWith("W/")) {
+            return etag.trim();
+        }
+        return lastModified == null || lastModified.isBlank() ? null : lastModified.trim();
+    }
+
+    /**
+     * wait for the response while checking the read and total timeouts
+     */
+    private <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> future, AtomicLong lastProgress, URL url) throws IOException {
+        long start = System.nanoTime();
+        while (true) {
+            try {
+                return future.get(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+            } catch (TimeoutException e) {
+                long now = System.nanoTime();
+                if (totalTimeout > 0 && now - start > TimeUnit.SECONDS.toNanos(totalTimeout)) {
+                    future.cancel(true);
+                    throw new HttpTimeoutException("download did not finish within " + totalTimeout + " seconds: " + url);
+                }
+                if (now - lastProgress.get() > TimeUnit.SECONDS.toNanos(readTimeout)) {
+                    future.cancel(true);
+                    throw new HttpTimeoutException("no data received within " + readTimeout + " seconds: " + url);
+                }
+
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while downloading " + url);
+
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("failed to download " + url, cause);
+            }
+        }
+    }
+
+    /**
+     * state of one HTTP transfer into a partial file
+     */
+    private static final class Transfer {
+        private final Path partFile;
+        private final long existing;
+        private final long started = System.nanoTime();
+        private final AtomicLong lastProgress = new AtomicLong(started);
+        // nanoseconds until the response headers arrived, -1 if unknown, and number of bytes received
+        private long latency = -1;
+        private long received;
+        // host of the download and the counter of the time spent waiting for the download limits
+        private final String host;
+        private final AtomicLong throttledNanos;
+        private final DownloadGovernor.TokenBucket bandwidthLimit;
+        private FileChannel channel;
+        // expected size of the complete file, -1 if unknown
+        private long expectedLength = -1;
+        // true if the server sent a part of the file that does not start at the end of the partial file
+        private boolean rangeMismatch = false;
+        // validators sent by the server
+        private String etag;
+        private String lastModified;
+        // checksums of the complete file, updated while the data arrives
+        private final MessageDigest sha256Digest = newDigest("SHA-256");
+        private final MessageDigest md5Digest = newDigest("MD5");
+        // final checksums, available after finish
+        private byte[] sha256;
+        private byte[] md5;
+
+        private Transfer(Path partFile, long existing, String host, AtomicLong throttledNanos, DownloadGovernor.TokenBucket bandwidthLimit) {
+            this.partFile = partFile;
+            this.existing = existing;
+            this.host = host;
+            this.throttledNanos = throttledNanos;
+            this.bandwidthLimit = bandwidthLimit;
+        }
+
+        /**
+         * decide how to write the response body, called as soon as the response headers are received
+         */
+        private BodySubscriber<Void> subscribe(ResponseInfo info) {
+            latency = System.nanoTime() - started;
+            int status = info.statusCode();
+            etag = info.headers().firstValue("ETag").orElse(null);
+            lastModified = info.headers().firstValue("Last-Modified").orElse(null);
+            try {
+                if (status == 206) {
+                    // partial content, continue at the offset that was returned by the server
+                    long[] range = parseContentRange(info.headers().firstValue("Content-Range").orElse(""));
+                    if (range[0] != existing) {
+                        log.debug("unexpected Content-Range in the response: " + info.headers().firstValue("Content-Range").orElse(""));
+                        rangeMismatch = true;
+                        return BodySubscribers.discarding();
+                    }
+                    open(StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    channel.truncate(range[0]);
+                    channel.position(range[0]);
+                    expectedLength = range[1];
+                    digestExisting(range[0]);
+                } else if (status / 100 == 2) {
+                    // the complete file, also if the server ignored the Range header or the file changed since the partial file was started
+                    open(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    expectedLength = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+                    String validator = getRangeValidator(etag, lastModified);
+                    if (validator != null) {
+                        Files.writeString(getValidatorFile(partFile), validator, StandardCharsets.UTF_8);
+                    } else {
+                        Files.deleteIfExists(getValidatorFile(partFile));
+                    }
+                } else {
+                    return BodySubscribers.discarding();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return new BodyWriter(channel);
+        }
+
+        /**
+         * writes the response body into the partial file. The next data is only requested when the bandwidth limits allow it, so that a limited
+         * download waits without blocking a thread of the HTTP client.
+         */
+        private final class BodyWriter implements BodySubscriber<Void> {
+            private final FileChannel target;
+            private final CompletableFuture<Void> body = new CompletableFuture<>();
+            private Flow.Subscription subscription;
+
+            private BodyWriter(FileChannel target) {
+                this.target = target;
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(List<ByteBuffer> buffers) {
+                long length = 0;
+                try {
+                    for (ByteBuffer buffer : buffers) {
+                        length += buffer.remaining();
+                        sha256Digest.update(buffer.duplicate());
+                        md5Digest.update(buffer.duplicate());
+                        while (buffer.hasRemaining()) {
+                            target.write(buffer);
+                        }
+                    }
+                } catch (IOException e) {
+                    subscription.cancel();
+                    body.completeExceptionally(e);
+                    return;
+                }
+                received += length;
+                long wait = DownloadGovernor.reserveBytes(host, length);
+                if (bandwidthLimit != null) {
+                    wait = Math.max(wait, bandwidthLimit.reserve(length, System.nanoTime()));
+                }
+                // the time waiting for the limits does not count as a stalled download
+                lastProgress.set(System.nanoTime() + wait);
+                if (wait > 0) {
+                    throttledNanos.addAndGet(wait);
+                    THROTTLE.schedule(() -> subscription.request(1), wait, TimeUnit.NANOSECONDS);
+                } else {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                body.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                body.complete(null);
+            }
+
+            @Override
+            public CompletionStage<Void> getBody() {
+                return body;
+            }
+        }
+
+        /**
+         * add the bytes that are already in the partial file to the checksum
+         */
+        private void digestExisting(long length) throws IOException {
+            sha256Digest.reset();
+            md5Digest.reset();
+            try (InputStream in = Files.newInputStream(partFile)) {
+                byte[] buffer = new byte[65536];
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        break;
+                    }
+                    sha256Digest.update(buffer, 0, read);
+                    md5Digest.update(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+
+        /**
+         * complete the checksums after the last data arrived
+         */
+        private void finish() {
+            sha256 = sha256Digest.digest();
+            md5 = md5Digest.digest();
+        }
+
+        private synchronized void open(StandardOpenOption... options) throws IOException {
+            channel = FileChannel.open(partFile, options);
+        }
+
+        private synchronized void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        /**
+         * check that the partial file has the length announced by the server
+         */
+        private void verifyLength(URL url) throws IOException {
+            long length = Files.size(partFile);
+            if (expectedLength >= 0 && length != expectedLength) {
+                throw new IOException("incomplete download of " + url + ": received " + length + " of " + expectedLength + " bytes");
+            }
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support MD5 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpClient getClient() {
+        return CLIENTS.computeIfAbsent(connectTimeout, timeout -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(timeout))
+                .build());
+    }
+
+    /**
+     * parse a header like "bytes 100-199/200"
+     *
+     * @param contentRange value of the Content-Range header
+     * @return the first byte position and the complete length, which is -1 if unknown
+     */
+    static long[] parseContentRange(String contentRange) {
+        long[] result = { -1, -1 };
+        int space = contentRange.indexOf(' ');
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        if (space < 0 || dash < space || slash < dash) {
+            return result;
+        }
+        try {
+            result[0] = Long.parseLong(contentRange.substring(space + 1, dash).trim());
+            String total = contentRange.substring(slash + 1).trim();
+            if (!"*".equals(total)) {
+                result[1] = Long.parseLong(total);
+            }
+        } catch (NumberFormatException e) {
+            result[0] = -1;
+        }
+        return result;
+    }
+
+    /**
+     * parse the Retry-After header, which contains either seconds or an HTTP date
+     *
+     * @param value value of the Retry-After header, or null
+     * @return the seconds to wait, or -1 if the header is missing or invalid
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).getSeconds());
+            } catch (DateTimeParseException e2) {
+                return -1;
+            }
+        }
+    }
+
+    private static URI toUri(URL url) throws IOException {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            // the URL contains characters that need to be quoted, e.g. spaces
+            try {
+                return new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
+            } catch (URISyntaxException e2) {
+                throw new IOException("the URL cannot be converted into a URI: " + url, e2);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+
+import lombok.Getter;
+
+/**
+ * Normalizes the image names given in the metadata. Every name is converted only once into all the forms that are needed to match it against the
+ * files of the import folder, the media folder and the pages of the document, and the results are cached for the rest of the run.
+ */
+public class ImageNameMatcher {
+
+    private static final Pattern NON_WORD_CHARACTERS = Pattern.compile("\\W");
+
+    // file extension that is applied on the images downloaded via URL
+    private final String imageExtension;
+    // true if file extension is to be ignored, false otherwise
+    private final boolean ignoreFileExtension;
+
+    private final Map<String, ImageName> names = new ConcurrentHashMap<>();
+
+    public ImageNameMatcher(String imageExtension, boolean ignoreFileExtension) {
+        this.imageExtension = imageExtension;
+        this.ignoreFileExtension = ignoreFileExtension;
+    }
+
+    /**
+     * get the normalized forms of an image name
+     *
+     * @param strImage name or URL of the image as it is given in the metadata
+     * @return the normalized forms of the name
+     */
+    public ImageName resolve(String strImage) {
+        return names.computeIfAbsent(strImage, this::create);
+    }
+
+    private ImageName create(String strImage) {
+        String imageName = getImageNameFromString(strImage);
+        String fileName = imageName.replace(" ", "_");
+        String key = fileName;
+        if (ignoreFileExtension) {
+            int index = fileName.lastIndexOf(".");
+            key = index > 0 ? fileName.substring(0, index) : fileName;
+        }
+        return new ImageName(strImage, imageName, fileName, key, ImportFolderIndex.toLowerCase(strImage), FilenameUtils.getBaseName(strImage));
+    }
+
+    /**
+     * get the image name from a string
+     *
+     * @param strUrl a string that is possibly a url
+     * @return the file name of the url if it is really a url string, otherwise the input string itself
+     */
+    private String getImageNameFromString(String strUrl) {
+        if (strUrl.indexOf(':') < 0) {
+            // plain file names are by far the most common case, so skip the exception
+            return strUrl;
+        }
+        try {
+            URL url = new URL(strUrl);
+            return NON_WORD_CHARACTERS.matcher(url.getFile()).replaceAll("_") + imageExtension;
+
+        } catch (MalformedURLException e) {
+            // the input string is not a URL, return itself instead
+            return strUrl;
+        }
+    }
+
+    /**
+     * The normalized forms of one image name.
+     */
+    public static class ImageName {
+        // name or URL of the image as it is given in the metadata
+        @Getter
+        private final String source;
+        // name of the image, with URLs converted to file names
+        @Getter
+        private final String imageName;
+        // name of the image file in the media folder, with spaces replaced
+        @Getter
+        private final String fileName;
+        // name of the image file in the media folder, without file extension if file extensions are ignored
+        @Getter
+        private final String key;
+        // source in lower case, for the case-insensitive match in the import folder
+        @Getter
+        private final String lowerCaseSource;
+        // source without path and file extension
+        @Getter
+        private final String baseName;
+
+        private ImageName(String source, String imageName, String fileName, String key, String lowerCaseSource, String baseName) {
+            this.source = source;
+            this.imageName = imageName;
+            this.fileName = fileName;
+            this.key = key;
+            this.lowerCaseSource = lowerCaseSource;
+            this.baseName = baseName;
+        }
+    }
+}
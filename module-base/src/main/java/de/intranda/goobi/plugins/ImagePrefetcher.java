@@ -0,0 +1,379 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.persistence.managers.MetadataManager;
+import de.sub.goobi.persistence.managers.StepManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Node-local background task that fetches the images of processes before their step with this plugin starts. It regularly looks for steps with this
+ * plugin that are open, or locked with at most a few unfinished steps before them, reads the image names or URLs of their processes and copies or
+ * downloads the images into a {@link StagingArea} per process. When the step runs, it takes the staged images first, so that it only has to move
+ * local files.
+ *
+ * The prefetcher is started when the plugin is loaded and works on one image at a time. It stops when the staging folder reaches its size limit and
+ * keeps the configured bandwidth while copying or downloading. Processes whose step is already running are skipped, and the staging folders of
+ * processes that are not waiting for the step anymore are removed. A step that starts while an image is prefetched for its process waits until this
+ * image is complete, and the prefetcher does not start another one for it.
+ */
+@Log4j2
+public class ImagePrefetcher {
+
+    // name of the folder inside of the temporary folder of Goobi that is used if no staging folder is configured
+    private static final String DEFAULT_FOLDER_NAME = "fetch_images_staging";
+
+    private static ImagePrefetcher instance;
+    // ids of the processes whose step is running right now, guarded by itself
+    private static final Set<Integer> CLAIMED = new HashSet<>();
+    // ids of the processes an image is copied or downloaded for right now, guarded by CLAIMED
+    private static final Set<Integer> TRANSFERRING = new HashSet<>();
+
+    private final String pluginTitle;
+    private final Path root;
+    // size limit of the staging folder in bytes
+    private final long maxSize;
+    // bytes per second of all transfers of the prefetcher
+    private final DownloadGovernor.TokenBucket bandwidthLimit;
+    // number of unfinished steps that may come before the step of a process that is prefetched
+    private final int lookahead;
+    private final ScheduledExecutorService scheduler;
+
+    // bytes in the staging folder
+    private long size;
+
+    private ImagePrefetcher(String pluginTitle, SubnodeConfiguration config) {
+        this.pluginTitle = pluginTitle;
+        this.root = getStagingFolder(config);
+        this.maxSize = Math.max(0, config.getLong("prefetch/@maxSize", 10240)) * 1024 * 1024;
+        this.bandwidthLimit = new DownloadGovernor.TokenBucket(Math.max(0, config.getLong("prefetch/@bandwidth", 0)) * 1024);
+        this.lookahead = Math.max(0, config.getInt("prefetch/@lookahead", 1));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fetch-images-prefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * start the prefetcher of this node if it is not running yet, its settings are taken from the configuration that starts it
+     *
+     * @param pluginTitle title of the plugin, used to find its steps
+     * @param config configuration of the step that starts the prefetcher
+     */
+    public static synchronized void start(String pluginTitle, SubnodeConfiguration config) {
+        if (instance != null) {
+            return;
+        }
+        instance = new ImagePrefetcher(pluginTitle, config);
+        long interval = Math.max(1, config.getLong("prefetch/@interval", 60));
+        instance.scheduler.scheduleWithFixedDelay(instance::runCycle, interval, interval, TimeUnit.SECONDS);
+        log.info("Started the prefetcher of images into " + instance.root);
+    }
+
+    /**
+     * start the prefetcher of this node when the plugin is loaded, with the settings of the first configuration block that enables prefetching
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration and its steps
+     */
+    public static void start(String pluginTitle) {
+        XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(pluginTitle);
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        SubnodeConfiguration config;
+        try {
+            config = xmlConfig.configurationAt("//config[./prefetch/@enabled = 'true'][1]");
+        } catch (IllegalArgumentException e) {
+            // prefetching is not enabled, a step may still start it if its configuration is changed later
+            return;
+        }
+        start(pluginTitle, config);
+    }
+
+    /**
+     * stop the prefetcher of this node, e.g. when the plugin is unloaded
+     */
+    public static synchronized void stop() {
+        if (instance == null) {
+            return;
+        }
+        instance.scheduler.shutdownNow();
+        instance = null;
+        log.info("Stopped the prefetcher of images.");
+    }
+
+    /**
+     * get the staging folder of all processes
+     *
+     * @param config configuration of the step
+     * @return the configured folder, or a folder inside of the temporary folder of Goobi
+     */
+    public static Path getStagingFolder(SubnodeConfiguration config) {
+        String folder = config.getString("prefetch/@folder", "");
+        return folder.isBlank() ? Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), DEFAULT_FOLDER_NAME) : Paths.get(folder);
+    }
+
+    /**
+     * mark a process as being imported right now, so that it is not prefetched anymore, and wait until the image that is prefetched for it right
+     * now is complete
+     *
+     * @param processId id of the process
+     */
+    public static void claim(int processId) {
+        synchronized (CLAIMED) {
+            CLAIMED.add(processId);
+            try {
+                while (TRANSFERRING.contains(processId)) {
+                    CLAIMED.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * allow the prefetching of a process again after its step ended
+     *
+     * @param processId id of the process
+     */
+    public static void release(int processId) {
+        synchronized (CLAIMED) {
+            CLAIMED.remove(processId);
+        }
+    }
+
+    private static boolean isClaimed(int processId) {
+        synchronized (CLAIMED) {
+            return CLAIMED.contains(processId);
+        }
+    }
+
+    /**
+     * mark the transfer of an image for a process as started, unless the step of the process claimed it already
+     *
+     * @return true if the image may be transferred, false if the process is claimed
+     */
+    static boolean beginTransfer(int processId) {
+        synchronized (CLAIMED) {
+            if (CLAIMED.contains(processId)) {
+                return false;
+            }
+            TRANSFERRING.add(processId);
+            return true;
+        }
+    }
+
+    static void endTransfer(int processId) {
+        synchronized (CLAIMED) {
+            TRANSFERRING.remove(processId);
+            CLAIMED.notifyAll();
+        }
+    }
+
+    /**
+     * check if the staged images of the configuration are used by the step, which is true for downloads and for copied or moved files that are not
+     * kept in the content store
+     *
+     * @param config configuration of the step
+     * @return true if images can be staged for this configuration, false otherwise
+     */
+    static boolean isStagingUsed(SubnodeConfiguration config) {
+        if (config.getBoolean("useUrl", false)) {
+            return true;
+        }
+        String mode = config.getString("fileHandling/@mode", "copy");
+        return "move".equals(mode) || ("copy".equals(mode) && !config.getBoolean("contentStore/@enabled", false));
+    }
+
+    private void runCycle() {
+        try {
+            size = getSize(root);
+            Set<Integer> waiting = new HashSet<>();
+            // locked and open steps of this plugin
+            String filter = "schritte.stepPlugin = '" + pluginTitle + "' AND schritte.Bearbeitungsstatus IN (0, 1)";
+            for (Step step : StepManager.getSteps("ProzesseID", filter)) {
+                Process process = step.getProzess();
+                if (!isComingUp(step)) {
+                    continue;
+                }
+                waiting.add(process.getId());
+                if (size < maxSize && !isClaimed(process.getId())) {
+                    prefetch(step);
+                }
+            }
+            removeObsoleteFolders(waiting);
+        } catch (Exception e) {
+            // keep the prefetcher running, the next cycle may succeed
+            log.error("The prefetching of images failed.", e);
+        }
+    }
+
+    /**
+     * check if a step comes up soon: it is open, or locked with at most the configured number of unfinished steps before it
+     */
+    private boolean isComingUp(Step step) {
+        if (step.getBearbeitungsstatusEnum() == StepStatus.OPEN) {
+            return true;
+        }
+        int unfinished = 0;
+        for (Step other : step.getProzess().getSchritte()) {
+            if (other.getReihenfolge() < step.getReihenfolge() && other.getBearbeitungsstatusEnum() != StepStatus.DONE
+                    && other.getBearbeitungsstatusEnum() != StepStatus.DEACTIVATED) {
+                unfinished++;
+            }
+        }
+        return unfinished <= lookahead;
+    }
+
+    private void prefetch(Step step) throws Exception {
+        SubnodeConfiguration config = ConfigPlugins.getProjectAndStepConfig(pluginTitle, step);
+        if (!config.getBoolean("prefetch/@enabled", false) || !isStagingUsed(config)) {
+            return;
+        }
+        Process process = step.getProzess();
+        List<String> images = MetadataManager.getAllMetadataValues(process.getId(), config.getString("filenameMetadata"));
+        if (images == null || images.isEmpty()) {
+            return;
+        }
+        Path mediaFolder = Paths.get(process.getConfiguredImageFolder("media"));
+        StagingArea staging = new StagingArea(root, process.getId());
+        Files.createDirectories(staging.getFolder());
+        if (config.getBoolean("useUrl", false)) {
+            prefetchDownloads(process.getId(), images, config, mediaFolder, staging);
+        } else {
+            prefetchCopies(process.getId(), images, config, mediaFolder, staging);
+        }
+    }
+
+    private void prefetchDownloads(int processId, List<String> urls, SubnodeConfiguration config, Path mediaFolder, StagingArea staging) {
+        ImageDownloader downloader = new ImageDownloader(config, bandwidthLimit);
+        ImageNameMatcher imageNames = new ImageNameMatcher(".jpg", false);
+        DownloadManifest manifest = DownloadManifest.load(staging.getFolder().resolve(StagingArea.MANIFEST_FILE_NAME));
+        for (String strUrl : urls) {
+            if (size >= maxSize || isClaimed(processId) || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            String imageName = imageNames.resolve(strUrl).getImageName();
+            Path target = staging.getFolder().resolve(imageName);
+            if ((manifest.get(strUrl) != null && Files.exists(target)) || Files.exists(mediaFolder.resolve(imageName))) {
+                continue;
+            }
+            if (!beginTransfer(processId)) {
+                break;
+            }
+            try {
+                DownloadManifest.Entry entry = downloader.download(new URL(strUrl), target, staging.getFolder().resolve(imageName + ".part"), null);
+                manifest.put(entry);
+                manifest.save(staging.getFolder());
+                size += entry.getSize();
+            } catch (MalformedURLException e) {
+                log.debug("Not prefetching the malformed URL " + strUrl);
+            } catch (IOException e) {
+                log.debug("Cannot prefetch " + strUrl + " for process " + processId + ": " + e.getMessage());
+            } finally {
+                endTransfer(processId);
+            }
+        }
+    }
+
+    private void prefetchCopies(int processId, List<String> names, SubnodeConfiguration config, Path mediaFolder, StagingArea staging) {
+        boolean ignoreFileExtension = config.getBoolean("fileHandling/@ignoreFileExtension", false);
+        ImageNameMatcher imageNames = new ImageNameMatcher(".jpg", ignoreFileExtension);
+        ImportFolderIndex folderIndex = ImportFolderIndex.getInstance(config.getString("fileHandling/@folder"));
+        for (String strImage : names) {
+            if (size >= maxSize || isClaimed(processId) || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            Path source = folderIndex.find(imageNames.resolve(strImage), ignoreFileExtension);
+            if (source == null || staging.getCopy(source) != null) {
+                continue;
+            }
+            if (Files.exists(mediaFolder.resolve(source.getFileName().toString().replace(" ", "_")))) {
+                // already imported
+                continue;
+            }
+            if (!beginTransfer(processId)) {
+                break;
+            }
+            try {
+                LocalFileTransfer.copy(source, staging.getFolder().resolve(source.getFileName().toString()), bandwidthLimit);
+                size += Files.size(source);
+            } catch (IOException e) {
+                log.debug("Cannot prefetch " + source + " for process " + processId + ": " + e.getMessage());
+            } finally {
+                endTransfer(processId);
+            }
+        }
+    }
+
+    /**
+     * remove the staging folders of processes that are neither waiting for the step nor running it
+     */
+    private void removeObsoleteFolders(Set<Integer> waiting) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> folders = Files.list(root)) {
+            for (Path folder : (Iterable<Path>) folders::iterator) {
+                try {
+                    int processId = Integer.parseInt(folder.getFileName().toString());
+                    if (!waiting.contains(processId) && !isClaimed(processId)) {
+                        new StagingArea(root, processId).clear();
+                    }
+                } catch (NumberFormatException e) {
+                    // not created by the prefetcher
+                }
+            }
+        }
+    }
+
+    private static long getSize(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
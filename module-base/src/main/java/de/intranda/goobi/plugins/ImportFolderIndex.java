@@ -0,0 +1,361 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.commons.io.FilenameUtils;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM-wide index of all file names of an import folder. There is one instance per folder, which is shared by all plugin instances and kept up to
+ * date by a {@link WatchService}. If the watch service reports an overflow, the folder is scanned again completely. Since network file systems like
+ * NFS or SMB do not report changes made by other machines, the folder is also scanned again whenever its modification time changed since the last
+ * scan or the last processed event, both when the index is requested and when an image is not found. An image that is still not found is finally
+ * looked up directly by its name.
+ *
+ * A file matches an image name if one of the following conditions holds:
+ * <ul>
+ * <li>its name equals the image name, or if file extensions are ignored, its name is the image name followed by a dot and any suffix</li>
+ * <li>its name equals the image name case-insensitively</li>
+ * <li>its base name equals the base name of the image name</li>
+ * </ul>
+ * If several files match, the one that comes first in the sorted folder listing is returned, just like the former per image listing did.
+ */
+@Log4j2
+public class ImportFolderIndex {
+
+    // all indexes, one per import folder
+    private static final Map<Path, ImportFolderIndex> INDEXES = new ConcurrentHashMap<>();
+    // watch keys of all watched import folders
+    private static final Map<WatchKey, ImportFolderIndex> WATCHED = new ConcurrentHashMap<>();
+    private static WatchService watchService;
+
+    private final Path folder;
+
+    // file name -> files
+    private final Map<String, NavigableSet<Path>> exactNames = new ConcurrentHashMap<>();
+    // every part of the file name before a dot -> files
+    private final Map<String, NavigableSet<Path>> strippedNames = new ConcurrentHashMap<>();
+    // lower case file name -> files
+    private final Map<String, NavigableSet<Path>> lowerCaseNames = new ConcurrentHashMap<>();
+    // base name of the file -> files
+    private final Map<String, NavigableSet<Path>> baseNames = new ConcurrentHashMap<>();
+
+    // true if changes are reported by the watch service, false if the folder needs to be checked for changes
+    private volatile boolean watched = false;
+    // modification time of the folder at the last scan
+    private volatile FileTime lastScanned;
+
+    private ImportFolderIndex(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * get the index of an import folder, create it if it does not exist yet
+     *
+     * @param folder path of the import folder
+     * @return the shared index of this folder
+     */
+    public static ImportFolderIndex getInstance(String folder) {
+        Path path = Paths.get(folder).toAbsolutePath().normalize();
+        ImportFolderIndex index = INDEXES.computeIfAbsent(path, ImportFolderIndex::create);
+        index.rescanIfModified();
+        return index;
+    }
+
+    private static ImportFolderIndex create(Path folder) {
+        ImportFolderIndex index = new ImportFolderIndex(folder);
+        // register before the first scan, so that no change gets lost in between
+        index.watched = register(index);
+        index.scan();
+        return index;
+    }
+
+    private static synchronized boolean register(ImportFolderIndex index) {
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                Thread watcher = new Thread(ImportFolderIndex::watch, "fetch-images-folder-watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+            WatchKey key = index.folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            WATCHED.put(key, index);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Cannot watch the import folder " + index.folder + ", it will be checked for changes on every run instead.", e);
+            return false;
+        }
+    }
+
+    /**
+     * process the events of the watch service, runs in its own daemon thread
+     */
+    private static void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            ImportFolderIndex index = WATCHED.get(key);
+            if (index != null) {
+                index.process(key.pollEvents());
+            }
+            if (!key.reset()) {
+                // the folder is not accessible anymore
+                WATCHED.remove(key);
+                if (index != null) {
+                    index.watched = false;
+                }
+            }
+        }
+    }
+
+    private void process(List<WatchEvent<?>> events) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.debug("Events for the import folder " + folder + " were lost, scanning it again.");
+                scan();
+                return;
+            }
+            Path file = folder.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                if (Files.isRegularFile(file)) {
+                    add(file);
+                }
+            } else {
+                remove(file);
+            }
+        }
+        // the reported changes are in the index, so they do not cause another scan
+        lastScanned = getModificationTime();
+    }
+
+    /**
+     * scan the whole folder again
+     */
+    private synchronized void scan() {
+        FileTime modified = getModificationTime();
+        List<Path> files = StorageProvider.getInstance().listFiles(folder.toString());
+        // replace the content per key, so that readers never see a half empty index
+        Map<String, NavigableSet<Path>> newExactNames = new ConcurrentHashMap<>();
+        Map<String, NavigableSet<Path>> newStrippedNames = new ConcurrentHashMap<>();
+        Map<String, NavigableSet<Path>> newLowerCaseNames = new ConcurrentHashMap<>();
+        Map<String, NavigableSet<Path>> newBaseNames = new ConcurrentHashMap<>();
+        for (Path file : files) {
+            Path absolute = folder.resolve(file.getFileName());
+            String fileName = absolute.getFileName().toString();
+            addPath(newExactNames, fileName, absolute);
+            addPath(newLowerCaseNames, toLowerCase(fileName), absolute);
+            addPath(newBaseNames, FilenameUtils.getBaseName(fileName), absolute);
+            for (String stripped : getStrippedNames(fileName)) {
+                addPath(newStrippedNames, stripped, absolute);
+            }
+        }
+        replace(exactNames, newExactNames);
+        replace(strippedNames, newStrippedNames);
+        replace(lowerCaseNames, newLowerCaseNames);
+        replace(baseNames, newBaseNames);
+        lastScanned = modified;
+        log.debug("Indexed " + files.size() + " files of the import folder " + folder);
+    }
+
+    /**
+     * scan the folder again if its modification time changed
+     *
+     * @return true if the folder was scanned
+     */
+    private boolean rescanIfModified() {
+        FileTime modified = getModificationTime();
+        if (modified == null || !modified.equals(lastScanned)) {
+            scan();
+            return true;
+        }
+        return false;
+    }
+
+    private FileTime getModificationTime() {
+        try {
+            return Files.getLastModifiedTime(folder);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * get the first file of the import folder that matches the image
+     *
+     * @param name normalized name of the image
+     * @param ignoreFileExtension true if file extension is to be ignored, false otherwise
+     * @return the path of the first matching file, or null if there is no match
+     */
+    public Path find(ImageNameMatcher.ImageName name, boolean ignoreFileExtension) {
+        Path found = lookup(name, ignoreFileExtension);
+        if (found == null && rescanIfModified()) {
+            found = lookup(name, ignoreFileExtension);
+        }
+        if (found == null && !ignoreFileExtension) {
+            // e.g. a network file system that caches the modification time of the folder
+            found = findDirectly(name.getImageName());
+        }
+        return found;
+    }
+
+    private Path lookup(ImageNameMatcher.ImageName name, boolean ignoreFileExtension) {
+        while (true) {
+            Path first = getFirst(ignoreFileExtension ? strippedNames : exactNames, name.getImageName());
+            first = earlier(first, getFirst(lowerCaseNames, name.getLowerCaseSource()));
+            first = earlier(first, getFirst(baseNames, name.getBaseName()));
+            if (first == null || Files.exists(first)) {
+                return first;
+            }
+            // the file was moved away by another run before its event was processed
+            remove(first);
+        }
+    }
+
+    private Path findDirectly(String fileName) {
+        try {
+            Path file = folder.resolve(fileName).normalize();
+            if (folder.equals(file.getParent()) && Files.isRegularFile(file)) {
+                add(file);
+                return file;
+            }
+        } catch (InvalidPathException e) {
+            // not a valid file name on this system
+        }
+        return null;
+    }
+
+    /**
+     * add a file to the index
+     *
+     * @param file path of the new file in the import folder
+     */
+    public void add(Path file) {
+        String fileName = file.getFileName().toString();
+        addPath(exactNames, fileName, file);
+        addPath(lowerCaseNames, toLowerCase(fileName), file);
+        addPath(baseNames, FilenameUtils.getBaseName(fileName), file);
+        for (String stripped : getStrippedNames(fileName)) {
+            addPath(strippedNames, stripped, file);
+        }
+    }
+
+    /**
+     * remove a file from the index, e.g. after it was moved into a process folder
+     *
+     * @param file path of the file that does not exist in the import folder anymore
+     */
+    public void remove(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        String fileName = absolute.getFileName().toString();
+        removePath(exactNames, fileName, absolute);
+        removePath(lowerCaseNames, toLowerCase(fileName), absolute);
+        removePath(baseNames, FilenameUtils.getBaseName(fileName), absolute);
+        for (String stripped : getStrippedNames(fileName)) {
+            removePath(strippedNames, stripped, absolute);
+        }
+    }
+
+    private static void addPath(Map<String, NavigableSet<Path>> map, String key, Path file) {
+        map.compute(key, (k, files) -> {
+            NavigableSet<Path> result = files == null ? new ConcurrentSkipListSet<>() : files;
+            result.add(file);
+            return result;
+        });
+    }
+
+    private static void removePath(Map<String, NavigableSet<Path>> map, String key, Path file) {
+        map.computeIfPresent(key, (k, files) -> {
+            files.remove(file);
+            return files.isEmpty() ? null : files;
+        });
+    }
+
+    private static void replace(Map<String, NavigableSet<Path>> target, Map<String, NavigableSet<Path>> source) {
+        target.putAll(source);
+        target.keySet().retainAll(source.keySet());
+    }
+
+    private static Path getFirst(Map<String, NavigableSet<Path>> map, String key) {
+        NavigableSet<Path> files = map.get(key);
+        if (files != null) {
+            // the iterator is weakly consistent, so a concurrently emptied set simply yields nothing
+            for (Path file : files) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static Path earlier(Path a, Path b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * get all parts of the file name before a dot, e.g. a and a.b for a.b.tif
+     */
+    static List<String> getStrippedNames(String fileName) {
+        List<String> result = new ArrayList<>(2);
+        int index = fileName.indexOf('.');
+        while (index >= 0) {
+            result.add(fileName.substring(0, index));
+            index = fileName.indexOf('.', index + 1);
+        }
+        return result;
+    }
+
+    static String toLowerCase(String name) {
+        // equivalent to the comparison done by String.equalsIgnoreCase
+        return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,148 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a thread pool that is shared with others, but never more than a given number of them at the same time. Further tasks wait in a queue
+ * of this executor without blocking the caller, so that one process of a batch cannot occupy all threads of the shared pool.
+ *
+ * Shutting down this executor only affects its own tasks, the shared pool keeps running.
+ */
+public class LimitedExecutor extends AbstractExecutorService {
+
+    private final Executor shared;
+    private final int limit;
+
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private final Set<Thread> running = new HashSet<>();
+    private int active = 0;
+    private boolean shutdown = false;
+
+    /**
+     * @param shared the shared thread pool that runs the tasks
+     * @param limit number of tasks that may run at the same time
+     */
+    public LimitedExecutor(Executor shared, int limit) {
+        this.shared = shared;
+        this.limit = Math.max(1, limit);
+    }
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("the executor is shut down");
+        }
+        queue.add(command);
+        dispatch();
+    }
+
+    /**
+     * hand queued tasks to the shared pool as long as the limit allows it
+     */
+    private synchronized void dispatch() {
+        while (active < limit && !queue.isEmpty()) {
+            Runnable task = queue.poll();
+            active++;
+            try {
+                shared.execute(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                active--;
+                throw e;
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            running.add(thread);
+        }
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                running.remove(thread);
+                active--;
+                dispatch();
+                if (isTerminated()) {
+                    notifyAll();
+                }
+            }
+            // do not hand an interrupt of this executor to the next task of the shared pool
+            Thread.interrupted();
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        // queued tasks are still run
+        shutdown = true;
+        if (isTerminated()) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(queue);
+        queue.clear();
+        for (Thread thread : running) {
+            thread.interrupt();
+        }
+        if (isTerminated()) {
+            notifyAll();
+        }
+        return pending;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && active == 0 && queue.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+import org.apache.commons.lang.SystemUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Transfers files from the import folder into the media folder of a process on the local file system, either as a copy, as a hard link or as a
+ * reflink, i.e. a copy-on-write clone of the file.
+ */
+@Log4j2
+public class LocalFileTransfer {
+
+    private LocalFileTransfer() {
+        // only static methods
+    }
+
+    /**
+     * copy a file using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so that the data does not need to pass
+     * through the Java heap. If digests are given, the data is copied through a buffer instead and the digests are updated on the way, so that the
+     * file is read only once. The copy is written next to the target first and renamed when it is complete. The modification time is kept.
+     *
+     * @param source the file to be copied
+     * @param target path of the copy
+     * @param digests digests to be updated with the content of the file
+     * @throws IOException
+     */
+    public static void copy(Path source, Path target, MessageDigest... digests) throws IOException {
+        copy(source, target, null, digests);
+    }
+
+    /**
+     * copy a file like {@link #copy(Path, Path, MessageDigest...)}, but in small chunks that are counted against a bandwidth limit
+     *
+     * @param source the file to be copied
+     * @param target path of the copy
+     * @param bandwidthLimit limit to wait for after every chunk, or null for no limit
+     * @param digests digests to be updated with the content of the file
+     * @throws IOException
+     */
+    static void copy(Path source, Path target, DownloadGovernor.TokenBucket bandwidthLimit, MessageDigest... digests) throws IOException {
+        Path temporary = getTemporaryPath(target);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (digests.length > 0 || bandwidthLimit != null) {
+                copyThroughBuffer(in, out, digests, bandwidthLimit);
+            } else {
+                transfer(in, out);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.setLastModifiedTime(temporary, Files.getLastModifiedTime(source));
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * move a complete file to its final name, so that the target either has its old content or the complete new one. If both paths are on different
+     * file systems, the file is copied next to the target first and renamed there.
+     *
+     * @param source the complete file
+     * @param target the final path of the file
+     * @throws IOException
+     */
+    public static void publish(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            copy(source, target);
+            Files.delete(source);
+        }
+    }
+
+    private static void transfer(FileChannel in, FileChannel out) throws IOException {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = in.transferTo(position, size - position, out);
+            if (transferred <= 0 && position >= in.size()) {
+                // the file got shorter in the meantime
+                break;
+            }
+            position += transferred;
+        }
+    }
+
+    private static void copyThroughBuffer(FileChannel in, FileChannel out, MessageDigest[] digests, DownloadGovernor.TokenBucket bandwidthLimit)
+            throws IOException {
+        // smaller chunks keep a limited copy close to its bandwidth instead of alternating between bursts and long waits
+        ByteBuffer buffer = ByteBuffer.allocate(bandwidthLimit == null ? 1 << 20 : 1 << 16);
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            buffer.flip();
+            for (MessageDigest digest : digests) {
+                digest.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+            DownloadGovernor.acquire(bandwidthLimit, read);
+        }
+    }
+
+    /**
+     * create a hard link of the source file. The link is created next to the target and renamed, so that an existing target is replaced atomically.
+     *
+     * @param source the file in the import folder
+     * @param target path of the link in the media folder
+     * @return true if the link was created, false if the file system does not support it, e.g. because both paths are on different devices
+     * @throws IOException if the link cannot be renamed to the target
+     */
+    public static boolean hardlink(Path source, Path target) throws IOException {
+        Path temporary = getTemporaryPath(target);
+        Files.deleteIfExists(temporary);
+        try {
+            Files.createLink(temporary, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Cannot create a hard link from " + source + " to " + target + ": " + e.getMessage());
+            return false;
+        }
+        replace(temporary, target);
+        return true;
+    }
+
+    /**
+     * create a reflink of the source file, which shares the data blocks with the source until one of them is changed
+     *
+     * @param source the file in the import folder
+     * @param target path of the clone in the media folder
+     * @return true if the clone was created, false if the file system or the operating system does not support it
+     * @throws IOException if the clone cannot be renamed to the target
+     */
+    public static boolean reflink(Path source, Path target) throws IOException {
+        if (SystemUtils.IS_OS_WINDOWS) {
+            return false;
+        }
+        Path temporary = getTemporaryPath(target);
+        Files.deleteIfExists(temporary);
+        // there is no Java API for reflinks, but GNU cp uses the FICLONE ioctl
+        ProcessBuilder builder =
+                new ProcessBuilder("cp", "--reflink=always", "--preserve=timestamps", "--", source.toString(), temporary.toString());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        boolean cloned = false;
+        try {
+            cloned = builder.start().waitFor() == 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.debug("Cannot run cp to create a reflink: " + e.getMessage());
+        }
+        if (!cloned) {
+            Files.deleteIfExists(temporary);
+            return false;
+        }
+        replace(temporary, target);
+        return true;
+    }
+
+    private static Path getTemporaryPath(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".tmp");
+    }
+
+    /**
+     * rename a complete temporary file to the target
+     */
+    private static void replace(Path temporary, Path target) throws IOException {
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // renaming a hard link onto another link of the same file does nothing
+        Files.deleteIfExists(temporary);
+    }
+}
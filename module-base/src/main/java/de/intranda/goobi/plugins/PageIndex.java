@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+
+/**
+ * Index of the pages of a digital document by their image names, so that an existing page can be found without comparing the image name against
+ * every page. If file extensions are ignored, a page is found by every part of its image name before a dot. If several pages match, the first one
+ * in the order of the document is returned.
+ */
+public class PageIndex {
+
+    private final boolean ignoreFileExtension;
+    // image name or parts of it -> first page with this name
+    private final Map<String, DocStruct> pages = new HashMap<>();
+
+    /**
+     * create the index of all pages that the document contains right now
+     *
+     * @param dd DigitalDocument
+     * @param ignoreFileExtension true if file extension is to be ignored, false otherwise
+     */
+    public PageIndex(DigitalDocument dd, boolean ignoreFileExtension) {
+        this.ignoreFileExtension = ignoreFileExtension;
+        List<DocStruct> allPages = dd.getAllDocStructsByType("page");
+        if (allPages != null) {
+            for (DocStruct page : allPages) {
+                add(page);
+            }
+        }
+    }
+
+    /**
+     * add a page to the index, pages that are already in the index are preferred
+     *
+     * @param page the new page, which must come after all pages already in the index
+     */
+    public void add(DocStruct page) {
+        String imageName = page.getImageName();
+        if (imageName == null) {
+            return;
+        }
+        if (!ignoreFileExtension) {
+            pages.putIfAbsent(imageName, page);
+            return;
+        }
+        for (String stripped : ImportFolderIndex.getStrippedNames(imageName)) {
+            pages.putIfAbsent(stripped, page);
+        }
+    }
+
+    /**
+     * get the page of an image
+     *
+     * @param imageName name of the image with spaces replaced, and without file extension if file extensions are ignored
+     * @return the first page with this image name, or null if there is none
+     */
+    public DocStruct get(String imageName) {
+        return pages.get(imageName);
+    }
+}
@@ -0,0 +1,204 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.Helper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Collects the journal entries of one run of the plugin and writes them to the process journal at the end of the run, instead of inserting one row
+ * per message while the images are imported. Entries below the configured level are dropped, equal entries are written only once with the number
+ * of their occurrences at the position of their first occurrence, and the writing itself happens on a background thread that is shared by all
+ * runs. Entries about single images are combined into one entry per message that counts the images and names the first of them, so that the
+ * number of rows does not grow with the number of images. At most 500 different entries are kept, further ones are only counted.
+ */
+@Log4j2
+public class ProcessJournal {
+
+    // one writer keeps the entries of all runs in order and limits the load on the database
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fetch-images-journal-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // number of different entries that are buffered per run
+    private static final int MAX_ENTRIES = 500;
+    // number of images that are named in a combined entry
+    private static final int MAX_IMAGE_NAMES = 10;
+
+    private final int processId;
+    private final int minimumRank;
+
+    // buffered entries in the order of their first occurrence, mapped by their type, text and whether they combine images
+    private final Map<List<Object>, Entry> entries = new LinkedHashMap<>();
+    // entries that were left out because the buffer was full
+    private int dropped;
+
+    /**
+     * @param processId id of the process the journal belongs to
+     * @param level lowest level that is written to the journal, one of DEBUG, INFO, WARN, ERROR
+     */
+    public ProcessJournal(int processId, String level) {
+        this.processId = processId;
+        this.minimumRank = getRank(parseLevel(level));
+    }
+
+    /**
+     * add an entry to the journal, it is written by {@link #flush()}
+     *
+     * @param logType type of the entry
+     * @param message text of the entry
+     */
+    public synchronized void add(LogType logType, String message) {
+        Entry entry = getEntry(logType, message, false);
+        if (entry != null) {
+            entry.count++;
+        }
+    }
+
+    /**
+     * add an entry about one image, all images with the same message are written as one entry by {@link #flush()}
+     *
+     * @param logType type of the entry
+     * @param message text of the entry without the image, e.g. "Images copied into the process folder"
+     * @param image name or URL of the image
+     */
+    public synchronized void addImage(LogType logType, String message, String image) {
+        Entry entry = getEntry(logType, message, true);
+        if (entry != null) {
+            entry.count++;
+            if (entry.images.size() < MAX_IMAGE_NAMES) {
+                entry.images.add(image);
+            }
+        }
+    }
+
+    /**
+     * get the buffered entry, or create it if there is still room
+     *
+     * @return the entry, or null if its type is below the level or the buffer is full
+     */
+    private Entry getEntry(LogType logType, String message, boolean combined) {
+        if (getRank(logType) < minimumRank) {
+            return null;
+        }
+        List<Object> key = List.of(logType, message, combined);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= MAX_ENTRIES) {
+                dropped++;
+                return null;
+            }
+            entry = new Entry(logType, message, combined);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * write all buffered entries to the process journal in the background, grouped by their types
+     *
+     * @return the pending write, which completes when all entries are written
+     */
+    public Future<?> flush() {
+        List<Entry> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(entries.values());
+            entries.clear();
+            if (dropped > 0) {
+                Entry summary = new Entry(LogType.WARN, dropped + " further journal entries of this run were left out.", false);
+                summary.count = 1;
+                batch.add(summary);
+                dropped = 0;
+            }
+        }
+        return WRITER.submit(() -> {
+            for (Entry entry : batch) {
+                String message = entry.getText();
+                try {
+                    Helper.addMessageToProcessJournal(processId, entry.logType, message);
+                } catch (RuntimeException e) {
+                    log.error("Cannot write the journal entry of process " + processId + ": " + message, e);
+                }
+            }
+        });
+    }
+
+    private static LogType parseLevel(String level) {
+        try {
+            return LogType.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            log.warn("Unknown journal level " + level + ", using DEBUG instead.");
+            return LogType.DEBUG;
+        }
+    }
+
+    private static int getRank(LogType logType) {
+        switch (logType) {
+            case DEBUG:
+                return 0;
+            case INFO:
+                return 1;
+            case WARN:
+                return 2;
+            case ERROR:
+                return 3;
+            default:
+                // entries for users are always written
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    private static class Entry {
+        private final LogType logType;
+        private final String message;
+        // names of the first images of a combined entry, null for other entries
+        private final List<String> images;
+        private int count;
+
+        private Entry(LogType logType, String message, boolean combined) {
+            this.logType = logType;
+            this.message = message;
+            this.images = combined ? new ArrayList<>() : null;
+        }
+
+        /**
+         * get the text that is written to the journal
+         */
+        private String getText() {
+            if (images == null) {
+                return count > 1 ? message + " (" + count + " times)" : message;
+            }
+            String text = message + " (" + count + (count == 1 ? " image): " : " images): ") + String.join(", ", images);
+            return count > images.size() ? text + ", ..." : text;
+        }
+    }
+}
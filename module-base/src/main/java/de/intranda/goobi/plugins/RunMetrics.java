@@ -0,0 +1,222 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Durations, bytes and counts of one run of the plugin, split into its phases. The phases that run in parallel threads sum up the time of all
+ * threads. When a run is finished, its values are added to the totals of all runs, which are available via JMX as {@link FetchImagesMetricsMXBean}.
+ */
+@Log4j2
+public class RunMetrics {
+
+    /**
+     * the phases of a run
+     */
+    public enum Phase {
+        READ_METADATA("readMetadata"),
+        METADATA_VALUES("metadataValues"),
+        MATCHING("matching"),
+        TRANSFER("transfer"),
+        DOCSTRUCTS("docStructs"),
+        WRITE_METADATA("writeMetadata"),
+        EXPORT("export");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Totals TOTALS = new Totals();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(TOTALS, new ObjectName("de.intranda.goobi.plugins:type=FetchImagesFromMetadata"));
+        } catch (JMException | RuntimeException e) {
+            // e.g. already registered by another class loader after a redeployment
+            log.warn("Cannot register the metrics of the plugin via JMX: " + e.getMessage());
+        }
+    }
+
+    private final long start = System.nanoTime();
+    private final Map<Phase, LongAdder> nanos = new EnumMap<>(Phase.class);
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder images = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public RunMetrics() {
+        for (Phase phase : Phase.values()) {
+            nanos.put(phase, new LongAdder());
+        }
+    }
+
+    /**
+     * add the time since the start of a phase
+     *
+     * @param phase the phase
+     * @param startNanos value of {@link System#nanoTime()} at the start of the phase
+     */
+    public void record(Phase phase, long startNanos) {
+        nanos.get(phase).add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * count an imported image
+     */
+    public void addImage() {
+        images.increment();
+    }
+
+    /**
+     * count the bytes that were downloaded or copied
+     *
+     * @param size number of bytes
+     */
+    public void addBytes(long size) {
+        bytes.add(size);
+    }
+
+    /**
+     * count an image that could not be imported
+     */
+    public void addFailure() {
+        failures.increment();
+    }
+
+    /**
+     * get the number of imported images
+     *
+     * @return the number of images imported so far
+     */
+    public long getImages() {
+        return images.sum();
+    }
+
+    /**
+     * get the number of images that could not be imported
+     *
+     * @return the number of failed images so far
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * get the number of bytes that were downloaded or copied
+     *
+     * @return the number of bytes so far
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * finish the run, add its values to the totals of all runs and get its summary
+     *
+     * @return a one line summary of the run
+     */
+    public String finish() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "Run metrics: %d images (%d failed), %.1f MB in %.1f s (%.1f images/s, %.1f MB/s);", images.sum(),
+                failures.sum(), bytes.sum() / 1e6, seconds, images.sum() / Math.max(seconds, 0.001), bytes.sum() / 1e6 / Math.max(seconds, 0.001)));
+        for (Phase phase : Phase.values()) {
+            summary.append(String.format(Locale.ROOT, " %s %.1f s", phase.label, nanos.get(phase).sum() / 1e9));
+            summary.append(phase.ordinal() < Phase.values().length - 1 ? "," : "");
+        }
+
+        TOTALS.runs.increment();
+        TOTALS.images.add(images.sum());
+        TOTALS.failures.add(failures.sum());
+        TOTALS.bytes.add(bytes.sum());
+        for (Phase phase : Phase.values()) {
+            TOTALS.nanos.get(phase).add(nanos.get(phase).sum());
+        }
+        TOTALS.lastRunSummary.set(summary.toString());
+        return summary.toString();
+    }
+
+    /**
+     * the totals of all runs, exposed via JMX
+     */
+    private static class Totals implements FetchImagesMetricsMXBean {
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder images = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final Map<Phase, LongAdder> nanos = new EnumMap<>(Phase.class);
+        private final AtomicReference<String> lastRunSummary = new AtomicReference<>();
+
+        private Totals() {
+            for (Phase phase : Phase.values()) {
+                nanos.put(phase, new LongAdder());
+            }
+        }
+
+        @Override
+        public long getRuns() {
+            return runs.sum();
+        }
+
+        @Override
+        public long getImages() {
+            return images.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public Map<String, Long> getPhaseMillis() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<Phase, LongAdder> entry : nanos.entrySet()) {
+                result.put(entry.getKey().label, entry.getValue().sum() / 1_000_000);
+            }
+            return result;
+        }
+
+        @Override
+        public String getLastRunSummary() {
+            return lastRunSummary.get();
+        }
+    }
+}
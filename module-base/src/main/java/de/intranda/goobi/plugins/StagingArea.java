@@ -0,0 +1,113 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Folder of a process inside of the staging folder of the {@link ImagePrefetcher}. It holds the images that were fetched before the step started.
+ * Images of the import folder keep their file names and are only used if their size and modification time still match the original file. Images
+ * downloaded via URL are listed in a {@link DownloadManifest} of the folder, together with the values needed to revalidate them later.
+ */
+@Log4j2
+public class StagingArea {
+
+    // name of the manifest of the staged downloads inside of the folder of the process
+    static final String MANIFEST_FILE_NAME = "downloads.tsv";
+
+    @Getter
+    private final Path folder;
+    private DownloadManifest manifest;
+
+    /**
+     * @param root the staging folder of all processes
+     * @param processId id of the process
+     */
+    public StagingArea(Path root, int processId) {
+        this.folder = root.resolve(String.valueOf(processId));
+    }
+
+    /**
+     * get the staged copy of a file of the import folder
+     *
+     * @param source the file in the import folder
+     * @return the staged copy if it has the same size and modification time as the file in the import folder, null otherwise
+     */
+    public Path getCopy(Path source) {
+        Path staged = folder.resolve(source.getFileName().toString());
+        try {
+            if (Files.isRegularFile(staged) && Files.size(staged) == Files.size(source)
+                    && Files.getLastModifiedTime(staged).equals(Files.getLastModifiedTime(source))) {
+                return staged;
+            }
+        } catch (IOException e) {
+            log.debug("Cannot compare the staged file " + staged + " with " + source, e);
+        }
+        return null;
+    }
+
+    /**
+     * move a staged download to its target
+     *
+     * @param url the URL as it is given in the metadata
+     * @param target the file in the media folder of the process
+     * @return the manifest entry of the image with the name of the target, or null if the URL was not staged
+     * @throws IOException
+     */
+    public synchronized DownloadManifest.Entry takeDownload(String url, Path target) throws IOException {
+        if (manifest == null) {
+            manifest = DownloadManifest.load(folder.resolve(MANIFEST_FILE_NAME));
+        }
+        DownloadManifest.Entry entry = manifest.get(url);
+        if (entry == null || !Files.isRegularFile(folder.resolve(entry.getFileName()))) {
+            return null;
+        }
+        // the staging folder is usually on another file system, the image must not show up incomplete under its final name
+        LocalFileTransfer.publish(folder.resolve(entry.getFileName()), target);
+        return new DownloadManifest.Entry(url, target.getFileName().toString(), entry.getEtag(), entry.getLastModified(), entry.getSize(),
+                entry.getSha256(), entry.getMd5());
+    }
+
+    /**
+     * remove the folder of the process with all files that were not used
+     */
+    public void clear() {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    log.warn("Cannot remove the staged file " + file, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Cannot remove the staging folder " + folder, e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path storeFolder;
+    private ContentStore store;
+    private Path source;
+
+    @Before
+    public void setUp() throws Exception {
+        storeFolder = folder.newFolder("store").toPath();
+        store = new ContentStore(storeFolder, "hardlink");
+        source = folder.newFile("source.tif").toPath();
+        Files.write(source, new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    public void testObjectIsKeptUntilLastReferenceIsReleased() throws Exception {
+        Path first = folder.newFolder("1").toPath().resolve("00000001.tif");
+        Path second = folder.newFolder("2").toPath().resolve("00000001.tif");
+        String hash = store.store(source, first, 1);
+        assertEquals(hash, store.store(source, second, 2));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(second));
+        Path object = getObject(hash);
+        assertEquals(2, Files.readAllLines(object.resolveSibling(hash + ".refs")).size());
+
+        Files.delete(first);
+        store.release(hash, first);
+        assertTrue(Files.exists(object));
+
+        Files.delete(second);
+        store.release(hash, second);
+        assertFalse(Files.exists(object));
+        assertFalse(Files.exists(object.resolveSibling(hash + ".refs")));
+    }
+
+    @Test
+    public void testObjectIsKeptWhileLinked() throws Exception {
+        Path target = folder.newFolder("1").toPath().resolve("00000001.tif");
+        String hash = store.store(source, target, 1);
+        // e.g. the process folder was moved, so that the reference does not match the link anymore
+        Path moved = target.resolveSibling("moved.tif");
+        Files.move(target, moved);
+
+        store.release(hash, target);
+        assertTrue(Files.exists(getObject(hash)));
+        Files.delete(moved);
+        store.release(hash, moved);
+        assertFalse(Files.exists(getObject(hash)));
+    }
+
+    @Test
+    public void testStoringTwiceKeepsOneReference() throws Exception {
+        Path target = folder.newFolder("1").toPath().resolve("00000001.tif");
+        String hash = store.store(source, target, 1);
+        store.store(source, target, 1);
+        assertEquals(1, Files.readAllLines(getObject(hash).resolveSibling(hash + ".refs")).size());
+    }
+
+    @Test
+    public void testLinksFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("work").resolve("store.tsv");
+        ContentStore.writeLinks(file, Map.of("00000001.tif", "abc"));
+        assertEquals(Map.of("00000001.tif", "abc"), ContentStore.readLinks(file));
+    }
+
+    private Path getObject(String hash) {
+        return storeFolder.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+}
@@ -0,0 +1,62 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DerivativeGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCreateAndDeleteDerivatives() throws Exception {
+        Path images = folder.newFolder("images").toPath();
+        Path image = Files.createDirectories(images.resolve("media")).resolve("00000001.png");
+        ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "png", image.toFile());
+
+        DerivativeGenerator generator =
+                new DerivativeGenerator(List.of(new DerivativeGenerator.Derivative("thumbs", 100, 0.8f, "jpg")), images, 1, 1);
+        generator.submit(image);
+        generator.finish();
+        Path thumbnail = images.resolve("thumbs").resolve("00000001.jpg");
+        assertEquals(100, ImageIO.read(thumbnail.toFile()).getWidth());
+        assertEquals("Derivatives created for 1 images, failed for 0 images.", generator.getSummary());
+
+        generator.delete("00000001.tif");
+        assertFalse(Files.exists(thumbnail));
+        assertTrue(Files.exists(image));
+    }
+}
@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DownloadCacheTest {
+
+    private static final String URL = "http://example.org/images/00000001.jpg";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCachedImageIsValidatedAfterMaxAge() throws Exception {
+        DownloadCache cache = DownloadCache.forFolder(folder.newFolder("cache").toString(), 1024, "copy", 0);
+        assertNull(cache.get(URL, folder.getRoot().toPath().resolve("missing.jpg")));
+        cache.put(newEntry(), newImage());
+        assertFalse(cache.isFresh(URL));
+
+        cache = DownloadCache.forFolder(folder.getRoot().toPath().resolve("cache").toString(), 1024, "copy", 60_000);
+        assertTrue(cache.isFresh(URL));
+        Path target = folder.getRoot().toPath().resolve("00000001.jpg");
+        DownloadManifest.Entry entry = cache.get(URL, target);
+        assertNotNull(entry);
+        assertEquals("00000001.jpg", entry.getFileName());
+        assertEquals("\"1\"", entry.getEtag());
+        assertEquals(3, Files.size(target));
+    }
+
+    @Test
+    public void testValidationSurvivesRestart() throws Exception {
+        Path root = folder.newFolder("cache").toPath();
+        DownloadCache cache = DownloadCache.forFolder(root.toString(), 1024, "copy", 60_000);
+        cache.put(newEntry(), newImage());
+        cache.validated(URL);
+        // a link of the same folder is a new cache instance that reads the entries from the disk
+        Path link = Files.createSymbolicLink(folder.getRoot().toPath().resolve("link"), root);
+        assertTrue(DownloadCache.forFolder(link.toString(), 1024, "copy", 60_000).isFresh(URL));
+    }
+
+    @Test
+    public void testHardlinkModeCopies() throws Exception {
+        DownloadCache cache = DownloadCache.forFolder(folder.newFolder("cache").toString(), 1024, "hardlink", 0);
+        cache.put(newEntry(), newImage());
+        Path target = folder.getRoot().toPath().resolve("00000001.jpg");
+        cache.get(URL, target);
+        Files.write(target, new byte[] { 9 });
+
+        Path other = folder.getRoot().toPath().resolve("other.jpg");
+        cache.get(URL, other);
+        assertEquals(3, Files.size(other));
+    }
+
+    private Path newImage() throws Exception {
+        Path file = folder.newFile("download.jpg").toPath();
+        Files.write(file, new byte[] { 1, 2, 3 });
+        return file;
+    }
+
+    private static DownloadManifest.Entry newEntry() {
+        return new DownloadManifest.Entry(URL, "image.jpg", "\"1\"", null, 3, "a", "b");
+    }
+}
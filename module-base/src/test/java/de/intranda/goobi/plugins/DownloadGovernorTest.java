@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DownloadGovernorTest {
+
+    @After
+    public void tearDown() throws Exception {
+        // the limits are shared by all downloaders
+        DownloadGovernor.configure(TestConfiguration.create(""));
+    }
+
+    @Test
+    public void testHostBandwidthLimit() throws Exception {
+        DownloadGovernor.configure(TestConfiguration.create("<download maxBandwidthPerHost=\"1\" />"));
+
+        // the bucket starts full with the bytes of one second
+        assertEquals(0, DownloadGovernor.reserveBytes("host.governor.test", 1024));
+        assertWait(500, DownloadGovernor.reserveBytes("host.governor.test", 512));
+        // waiting callers queue up behind each other
+        assertWait(1000, DownloadGovernor.reserveBytes("HOST.governor.test", 512));
+        // other hosts have their own bucket
+        assertEquals(0, DownloadGovernor.reserveBytes("other.governor.test", 1024));
+    }
+
+    @Test
+    public void testGlobalBandwidthLimit() throws Exception {
+        DownloadGovernor.configure(TestConfiguration.create("<download maxBandwidth=\"1\" />"));
+
+        assertEquals(0, DownloadGovernor.reserveBytes("first.governor.test", 1024));
+        assertWait(500, DownloadGovernor.reserveBytes("second.governor.test", 512));
+    }
+
+    @Test
+    public void testRequestLimit() throws Exception {
+        DownloadGovernor.configure(TestConfiguration.create("<download maxRequestsPerSecondPerHost=\"10\" />"));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, DownloadGovernor.acquireRequest("requests.governor.test"));
+        }
+        assertWait(100, DownloadGovernor.acquireRequest("requests.governor.test"));
+    }
+
+    @Test
+    public void testLoweredLimitEmptiesBucket() throws Exception {
+        DownloadGovernor.configure(TestConfiguration.create("<download maxBandwidthPerHost=\"4\" />"));
+        assertEquals(0, DownloadGovernor.reserveBytes("lowered.governor.test", 1024));
+
+        // the bucket keeps at most the bytes of one second of the new limit
+        DownloadGovernor.configure(TestConfiguration.create("<download maxBandwidthPerHost=\"1\" />"));
+        assertEquals(0, DownloadGovernor.reserveBytes("lowered.governor.test", 1024));
+        assertWait(500, DownloadGovernor.reserveBytes("lowered.governor.test", 512));
+    }
+
+    private static void assertWait(long expectedMillis, long nanos) {
+        long millis = nanos / 1_000_000;
+        assertTrue("waited " + millis + " ms instead of " + expectedMillis, Math.abs(millis - expectedMillis) < 50);
+    }
+}
@@ -0,0 +1,268 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.easymock.EasyMock;
+import org.goobi.beans.Process;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.PluginReturnValue;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.persistence.managers.MetadataManager;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * End-to-end load test of the download of images via URL. The plugin runs against a {@link LocalImageServer} with synthetic images, the Goobi
+ * dependencies are replaced by mocks. The test logs the wall time and the throughput of the run. It checks that every image was imported without
+ * a failure and that the resulting pagination contains every image exactly once, in the order of the metadata, with the content sent by the server.
+ *
+ * The test is skipped unless the system property loadtest is set:
+ *
+ * <pre>
+ * mvn test -Dtest=FetchImagesFromMetadataLoadTest -Dloadtest -Dloadtest.images=2000 -Dloadtest.latency=50 -Dloadtest.errorRate=0.05
+ * </pre>
+ *
+ * Supported properties with their defaults: loadtest.images=500, loadtest.imageSize=65536, loadtest.latency=20 (ms), loadtest.bandwidth=0 (bytes per
+ * second and response, 0 for no limit), loadtest.errorRate=0.02, loadtest.tooManyRequestsRate=0.02, loadtest.truncateRate=0.02,
+ * loadtest.threads=4, loadtest.maxConnectionsPerHost=4, loadtest.retries=3, loadtest.breakerThreshold=5.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigPlugins.class, MetadataManager.class, Helper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "com.sun.*", "jdk.internal.reflect.*",
+        "org.apache.logging.log4j.*" })
+@Log4j2
+public class FetchImagesFromMetadataLoadTest {
+
+    private static final int PROCESS_ID = 1;
+    private static final String FILENAME_METADATA = "SeparatedMaterial";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalImageServer server;
+    private String resourcesFolder;
+    private Path mediaFolder;
+    private Prefs prefs;
+    private Fileformat fileformat;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("load test, enable it with -Dloadtest", System.getProperty("loadtest") != null);
+
+        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+
+        server = new LocalImageServer();
+        server.setImageSize(Integer.getInteger("loadtest.imageSize", 64 * 1024));
+        server.setLatency(Long.getLong("loadtest.latency", 20));
+        server.setBandwidth(Long.getLong("loadtest.bandwidth", 0));
+        server.setErrorRate(getDouble("loadtest.errorRate", 0.02));
+        server.setTooManyRequestsRate(getDouble("loadtest.tooManyRequestsRate", 0.02));
+        server.setTruncateRate(getDouble("loadtest.truncateRate", 0.02));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testDownloadFromUrls() throws Exception {
+        int images = Integer.getInteger("loadtest.images", 500);
+        List<String> urls = new ArrayList<>();
+        for (int i = 1; i <= images; i++) {
+            urls.add(server.getUrl(i));
+        }
+
+        FetchImagesFromMetadataStepPlugin plugin = preparePlugin(urls);
+
+        long start = System.nanoTime();
+        PluginReturnValue result = plugin.run();
+        long wallTime = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        List<String> problems = checkPagination(urls);
+        long bytes = images * (long) server.getImageSize();
+        log.info(String.join(System.lineSeparator(), //
+                "Load test of the download via URL", //
+                String.format("  images: %d of %d bytes, latency %d ms, bandwidth %s, errors %.1f%%, 429 %.1f%%, truncated %.1f%%", images,
+                        server.getImageSize(), server.getLatency(), server.getBandwidth() > 0 ? server.getBandwidth() + " B/s" : "unlimited",
+                        server.getErrorRate() * 100, server.getTooManyRequestsRate() * 100, server.getTruncateRate() * 100), //
+                String.format("  result: %s, wall time %d ms, %.1f images/s, %.2f MB/s", result, wallTime, images * 1000.0 / wallTime,
+                        bytes / 1048.576 / wallTime), //
+                String.format("  server: %d requests, %d errors, %d times 429, %d truncated, %d bytes sent", server.getRequests().get(),
+                        server.getErrors().get(), server.getTooManyRequests().get(), server.getTruncated().get(), server.getBytesSent().get()), //
+                "  pagination: " + (problems.isEmpty() ? "correct" : problems.size() + " problems"), //
+                "    " + String.join(System.lineSeparator() + "    ", problems.subList(0, Math.min(20, problems.size())))));
+
+        assertEquals(PluginReturnValue.FINISH, result);
+        assertEquals(images, plugin.getMetrics().getImages());
+        assertEquals(0, plugin.getMetrics().getFailures());
+        assertEquals(bytes, plugin.getMetrics().getBytes());
+        assertTrue("the pagination is not correct: " + problems, problems.isEmpty());
+    }
+
+    /**
+     * create the plugin for a process whose metadata lists the given URLs
+     */
+    private FetchImagesFromMetadataStepPlugin preparePlugin(List<String> urls) throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
+        fileformat = createFileformat(prefs);
+
+        Path processFolder = folder.newFolder("1").toPath();
+        Path imagesFolder = Files.createDirectories(processFolder.resolve("images"));
+        mediaFolder = Files.createDirectories(imagesFolder.resolve("loadtest_media"));
+
+        Ruleset ruleset = EasyMock.createMock(Ruleset.class);
+        EasyMock.expect(ruleset.getPreferences()).andReturn(prefs).anyTimes();
+
+        Process process = EasyMock.createNiceMock(Process.class);
+        EasyMock.expect(process.getId()).andReturn(PROCESS_ID).anyTimes();
+        EasyMock.expect(process.getTitel()).andReturn("loadtest").anyTimes();
+        EasyMock.expect(process.getRegelsatz()).andReturn(ruleset).anyTimes();
+        EasyMock.expect(process.readMetadataFile()).andReturn(fileformat).anyTimes();
+        EasyMock.expect(process.getProcessDataDirectory()).andReturn(processFolder.toString() + "/").anyTimes();
+        EasyMock.expect(process.getImagesDirectory()).andReturn(imagesFolder.toString() + "/").anyTimes();
+        EasyMock.expect(process.getConfiguredImageFolder("media")).andReturn(mediaFolder.toString() + "/").anyTimes();
+
+        Step step = EasyMock.createNiceMock(Step.class);
+        EasyMock.expect(step.getProzess()).andReturn(process).anyTimes();
+        EasyMock.expect(step.getTitel()).andReturn("fetch images").anyTimes();
+        EasyMock.replay(ruleset, process, step);
+
+        PowerMock.mockStatic(ConfigPlugins.class);
+        EasyMock.expect(ConfigPlugins.getProjectAndStepConfig(EasyMock.anyString(), EasyMock.anyObject(Step.class))).andReturn(createConfig())
+                .anyTimes();
+        PowerMock.mockStatic(MetadataManager.class);
+        EasyMock.expect(MetadataManager.getAllMetadataValues(PROCESS_ID, FILENAME_METADATA)).andReturn(new ArrayList<>(urls)).anyTimes();
+        // journal entries are not written anywhere
+        PowerMock.mockStaticNice(Helper.class);
+        PowerMock.replay(ConfigPlugins.class, MetadataManager.class, Helper.class);
+
+        FetchImagesFromMetadataStepPlugin plugin = new FetchImagesFromMetadataStepPlugin();
+        plugin.initialize(step, "");
+        return plugin;
+    }
+
+    private static Fileformat createFileformat(Prefs prefs) throws Exception {
+        DigitalDocument dd = new DigitalDocument();
+        dd.setLogicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("Monograph")));
+        dd.setPhysicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook")));
+        Fileformat fileformat = new MetsMods(prefs);
+        fileformat.setDigitalDocument(dd);
+        return fileformat;
+    }
+
+    private static SubnodeConfiguration createConfig() throws Exception {
+        String config = "<config_plugin><config>" //
+                + "<project>*</project><step>*</step>" //
+                + "<useUrl>true</useUrl>" //
+                + "<download threads=\"" + Integer.getInteger("loadtest.threads", 4) + "\" maxConnectionsPerHost=\""
+                + Integer.getInteger("loadtest.maxConnectionsPerHost", 4) + "\" retries=\"" + Integer.getInteger("loadtest.retries", 3)
+                + "\" breakerThreshold=\"" + Integer.getInteger("loadtest.breakerThreshold", 5) + "\" retryDelay=\"1\" maxRetryDelay=\"5\" />" //
+                + "<clearExistingData>false</clearExistingData>" //
+                + "<filenameMetadata>" + FILENAME_METADATA + "</filenameMetadata>" //
+                + "<fileHandling mode=\"copy\" ignoreFileExtension=\"false\" folder=\"/tmp/\" />" //
+                + "<export enabled=\"false\" />" //
+                + "<journal level=\"INFO\" />" //
+                + "</config></config_plugin>";
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader(config));
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        return xmlConfig.configurationAt("config");
+    }
+
+    /**
+     * compare the pagination with the list of URLs, every URL must have a page at the same position whose file has the content of the image
+     *
+     * @return a description of every problem found, empty if the pagination is correct
+     */
+    private List<String> checkPagination(List<String> urls) throws Exception {
+        List<String> problems = new ArrayList<>();
+        ImageNameMatcher names = new ImageNameMatcher(".jpg", false);
+        DocStruct physical = fileformat.getDigitalDocument().getPhysicalDocStruct();
+        List<DocStruct> pages = physical.getAllChildren() == null ? new ArrayList<>() : physical.getAllChildren();
+        if (pages.size() != urls.size()) {
+            problems.add("expected " + urls.size() + " pages, found " + pages.size());
+        }
+        for (int i = 0; i < Math.min(pages.size(), urls.size()); i++) {
+            DocStruct page = pages.get(i);
+            String expectedName = names.resolve(urls.get(i)).getImageName();
+            if (!expectedName.equals(page.getImageName())) {
+                problems.add("page " + (i + 1) + " shows " + page.getImageName() + " instead of " + expectedName);
+                continue;
+            }
+            Metadata physPageNumber = page.getAllMetadataByType(prefs.getMetadataTypeByName("physPageNumber")).get(0);
+            if (!String.valueOf(i + 1).equals(physPageNumber.getValue())) {
+                problems.add("page " + (i + 1) + " has the physical page number " + physPageNumber.getValue());
+            }
+            Path file = mediaFolder.resolve(expectedName);
+            if (!Files.isRegularFile(file)) {
+                problems.add("page " + (i + 1) + " has no file " + file);
+            } else if (!Arrays.equals(server.getImage(i + 1), Files.readAllBytes(file))) {
+                problems.add("page " + (i + 1) + " has a file whose content differs from the image on the server");
+            }
+        }
+        return problems;
+    }
+
+    private static double getDouble(String property, double defaultValue) {
+        String value = System.getProperty(property);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,97 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class HostCircuitBreakerTest {
+
+    private static HostCircuitBreaker newBreaker() {
+        return HostCircuitBreaker.forHost(UUID.randomUUID() + ".example.org");
+    }
+
+    @Test
+    public void testSameHostSharesBreaker() {
+        assertTrue(HostCircuitBreaker.forHost("Images.Example.org") == HostCircuitBreaker.forHost("images.example.org"));
+    }
+
+    @Test
+    public void testOpensAfterThreshold() {
+        HostCircuitBreaker breaker = newBreaker();
+        assertFalse(breaker.recordFailure(3, 60000));
+        assertFalse(breaker.recordFailure(3, 60000));
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.recordFailure(3, 60000));
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        HostCircuitBreaker breaker = newBreaker();
+        breaker.recordFailure(2, 60000);
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure(2, 60000));
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void testSingleTrialAfterCooldown() {
+        HostCircuitBreaker breaker = newBreaker();
+        breaker.recordFailure(1, 0);
+        assertTrue("the trial request is let through", breaker.allowRequest());
+        assertFalse("only one trial at a time", breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() {
+        HostCircuitBreaker breaker = newBreaker();
+        breaker.recordFailure(5, 0);
+        breaker.recordFailure(5, 0);
+        breaker.recordFailure(5, 0);
+        breaker.recordFailure(5, 0);
+        breaker.recordFailure(5, 0);
+        assertTrue(breaker.allowRequest());
+        // a failed trial opens the breaker at once, without reaching the threshold again
+        assertFalse(breaker.recordFailure(5, 60000));
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testNeutralTrialAllowsNextTrial() {
+        HostCircuitBreaker breaker = newBreaker();
+        breaker.recordFailure(1, 0);
+        assertTrue(breaker.allowRequest());
+        breaker.recordNeutral();
+        assertTrue(breaker.isOpen());
+        assertTrue("the next request is the new trial", breaker.allowRequest());
+    }
+}
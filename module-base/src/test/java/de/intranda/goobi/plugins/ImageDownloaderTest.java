@@ -0,0 +1,193 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageDownloaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalImageServer server;
+    private Path target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalImageServer();
+        server.setImageSize(16 * 1024);
+        server.start();
+        target = folder.newFolder("media").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private ImageDownloader newDownloader(String attributes) throws Exception {
+        return new ImageDownloader(TestConfiguration.create("<download retryDelay=\"1\" " + attributes + " />"));
+    }
+
+    private DownloadManifest.Entry download(ImageDownloader downloader, String url, String name) throws IOException {
+        return downloader.download(new URL(url), target.resolve(name), target.resolve(name + ".part"), null);
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        DownloadManifest.Entry entry = download(newDownloader("retries=\"0\""), server.getUrl(1), "1.jpg");
+        assertArrayEquals(server.getImage(1), Files.readAllBytes(target.resolve("1.jpg")));
+        assertEquals(16 * 1024, entry.getSize());
+        assertTrue(Files.notExists(target.resolve("1.jpg.part")));
+    }
+
+    @Test
+    public void testResumeAfterBreakOff() throws Exception {
+        ImageDownloader downloader = newDownloader("retries=\"0\"");
+        server.setTruncateRate(1);
+        try {
+            download(downloader, server.getUrl(1), "1.jpg");
+            fail("the response is cut off");
+        } catch (IOException e) {
+            assertTrue(Files.size(target.resolve("1.jpg.part")) > 0);
+        }
+        server.setTruncateRate(0);
+        long sent = server.getBytesSent().get();
+        download(downloader, server.getUrl(1), "1.jpg");
+        assertArrayEquals(server.getImage(1), Files.readAllBytes(target.resolve("1.jpg")));
+        assertEquals("only the missing half is sent again", 8 * 1024, server.getBytesSent().get() - sent);
+        assertTrue(Files.notExists(target.resolve("1.jpg.part.validator")));
+    }
+
+    @Test
+    public void testResumeOfChangedImage() throws Exception {
+        ImageDownloader downloader = newDownloader("retries=\"0\"");
+        server.setTruncateRate(1);
+        try {
+            download(downloader, server.getUrl(1), "1.jpg");
+            fail("the response is cut off");
+        } catch (IOException e) {
+            // the partial file is kept
+        }
+        server.setTruncateRate(0);
+        server.setVersion(2);
+        download(downloader, server.getUrl(1), "1.jpg");
+        assertArrayEquals(server.getImage(1), Files.readAllBytes(target.resolve("1.jpg")));
+    }
+
+    @Test
+    public void testPartFileWithoutValidatorIsDiscarded() throws Exception {
+        Files.write(target.resolve("1.jpg.part"), new byte[4096]);
+        long sent = server.getBytesSent().get();
+        download(newDownloader("retries=\"0\""), server.getUrl(1), "1.jpg");
+        assertArrayEquals(server.getImage(1), Files.readAllBytes(target.resolve("1.jpg")));
+        assertEquals(16 * 1024, server.getBytesSent().get() - sent);
+    }
+
+    @Test
+    public void testBandwidthLimit() throws Exception {
+        // the bucket holds the bytes of one second, so the remaining 24 KB take about three seconds
+        ImageDownloader downloader = newDownloader("retries=\"0\" maxBandwidthPerHost=\"8\"");
+        try {
+            long start = System.nanoTime();
+            download(downloader, server.getUrl(1), "1.jpg");
+            download(downloader, server.getUrl(2), "2.jpg");
+            assertArrayEquals(server.getImage(2), Files.readAllBytes(target.resolve("2.jpg")));
+            assertTrue(System.nanoTime() - start > 2_500_000_000L);
+            assertTrue(downloader.getSummary().contains("waited for the download limits"));
+        } finally {
+            // the limits are shared by all downloaders
+            newDownloader("");
+        }
+    }
+
+    @Test
+    public void testRangeValidator() {
+        assertEquals("\"abc\"", ImageDownloader.getRangeValidator("\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", ImageDownloader.getRangeValidator("W/\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals(null, ImageDownloader.getRangeValidator("W/\"abc\"", null));
+        assertEquals(null, ImageDownloader.getRangeValidator(null, " "));
+    }
+
+    @Test
+    public void testParseContentRange() {
+        assertArrayEquals(new long[] { 100, 200 }, ImageDownloader.parseContentRange("bytes 100-199/200"));
+        assertArrayEquals(new long[] { 100, -1 }, ImageDownloader.parseContentRange("bytes 100-199/*"));
+        assertArrayEquals(new long[] { -1, -1 }, ImageDownloader.parseContentRange("bytes x-199/200"));
+        assertArrayEquals(new long[] { -1, -1 }, ImageDownloader.parseContentRange("bytes */200"));
+        assertArrayEquals(new long[] { -1, -1 }, ImageDownloader.parseContentRange(""));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(120, ImageDownloader.parseRetryAfter(" 120 "));
+        assertEquals(0, ImageDownloader.parseRetryAfter("-5"));
+        assertEquals(0, ImageDownloader.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        String later = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(10));
+        long seconds = ImageDownloader.parseRetryAfter(later);
+        assertTrue(seconds > 590 && seconds <= 600);
+        assertEquals(-1, ImageDownloader.parseRetryAfter(null));
+        assertEquals(-1, ImageDownloader.parseRetryAfter("soon"));
+    }
+
+    @Test
+    public void testTrialWithClientErrorClosesBreaker() throws Exception {
+        // the server is down and opens the breaker
+        server.setErrorRate(1);
+        ImageDownloader downloader = newDownloader("retries=\"0\" breakerThreshold=\"1\" breakerCooldown=\"1\"");
+        try {
+            download(downloader, server.getUrl(1), "1.jpg");
+            fail("the server is down");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getStatus());
+        }
+        assertTrue(HostCircuitBreaker.forHost(new URL(server.getUrl(1)).getHost()).isOpen());
+
+        // the trial request after the cooldown finds a missing image, the host is reachable again
+        server.setErrorRate(0);
+        Thread.sleep(1100);
+        try {
+            download(downloader, server.getUrl(1).replace("1.jpg", "missing.jpg"), "missing.jpg");
+            fail("the image is missing");
+        } catch (HttpStatusException e) {
+            assertEquals(404, e.getStatus());
+        }
+        download(downloader, server.getUrl(2), "2.jpg");
+        assertArrayEquals(server.getImage(2), Files.readAllBytes(target.resolve("2.jpg")));
+    }
+}
@@ -0,0 +1,64 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ImagePrefetcherTest {
+
+    private static final int PROCESS_ID = 4711;
+
+    @After
+    public void tearDown() {
+        ImagePrefetcher.release(PROCESS_ID);
+    }
+
+    @Test
+    public void testClaimWaitsForTransfer() throws Exception {
+        assertTrue(ImagePrefetcher.beginTransfer(PROCESS_ID));
+        CountDownLatch claimed = new CountDownLatch(1);
+        Thread step = new Thread(() -> {
+            ImagePrefetcher.claim(PROCESS_ID);
+            claimed.countDown();
+        });
+        step.start();
+        assertFalse(claimed.await(200, TimeUnit.MILLISECONDS));
+        ImagePrefetcher.endTransfer(PROCESS_ID);
+        assertTrue(claimed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNoTransferAfterClaim() {
+        ImagePrefetcher.claim(PROCESS_ID);
+        assertFalse(ImagePrefetcher.beginTransfer(PROCESS_ID));
+        ImagePrefetcher.release(PROCESS_ID);
+        assertTrue(ImagePrefetcher.beginTransfer(PROCESS_ID));
+        ImagePrefetcher.endTransfer(PROCESS_ID);
+    }
+}
@@ -0,0 +1,131 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportFolderIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ImageNameMatcher names = new ImageNameMatcher(".jpg", false);
+
+    @Test
+    public void testFindsFileWithoutChangeEvent() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Files.createFile(importFolder.resolve("00000001.tif"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+        FileTime scanned = Files.getLastModifiedTime(importFolder);
+
+        // e.g. written by another machine to a network file system that caches the modification time of the folder
+        Path added = Files.createFile(importFolder.resolve("00000002.tif"));
+        Files.setLastModifiedTime(importFolder, scanned);
+        assertEquals(added, index.find(names.resolve("00000002.tif"), false));
+    }
+
+    @Test
+    public void testRescansModifiedFolder() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Files.createFile(importFolder.resolve("00000001.tif"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+
+        Path added = Files.createFile(importFolder.resolve("00000002.TIF"));
+        Files.setLastModifiedTime(importFolder, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        assertEquals(added, index.find(names.resolve("00000002.tif"), false));
+    }
+
+    @Test
+    public void testFindsExactName() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Path exact = Files.createFile(importFolder.resolve("00000001.tif"));
+        Files.createFile(importFolder.resolve("00000010.tif"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+
+        assertEquals(exact, index.find(names.resolve("00000001.tif"), false));
+        assertNull(index.find(names.resolve("00000002.tif"), false));
+    }
+
+    @Test
+    public void testFindsStrippedName() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Path stripped = Files.createFile(importFolder.resolve("00000001.master.tif"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+
+        ImageNameMatcher ignoringNames = new ImageNameMatcher(".jpg", true);
+        assertEquals(stripped, index.find(ignoringNames.resolve("00000001"), true));
+        assertEquals(stripped, index.find(ignoringNames.resolve("00000001.master"), true));
+        assertNull(index.find(ignoringNames.resolve("00000001.mas"), true));
+    }
+
+    @Test
+    public void testFindsNameCaseInsensitive() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Path upperCase = Files.createFile(importFolder.resolve("IMAGE.TIF"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+
+        assertEquals(upperCase, index.find(names.resolve("image.tif"), false));
+    }
+
+    @Test
+    public void testFindsBaseName() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Path other = Files.createFile(importFolder.resolve("00000001.png"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+
+        assertEquals(other, index.find(names.resolve("00000001.tif"), false));
+    }
+
+    @Test
+    public void testPrefersFirstFileOfListing() throws Exception {
+        Path importFolder = folder.newFolder("import").toPath();
+        Files.createFile(importFolder.resolve("image.tif"));
+        // matches case-insensitively only, but comes first in the sorted listing
+        Path first = Files.createFile(importFolder.resolve("IMAGE.tif"));
+        ImportFolderIndex index = ImportFolderIndex.getInstance(importFolder.toString());
+
+        assertEquals(first, index.find(names.resolve("image.tif"), false));
+
+        // matches by its base name only, but comes first in the sorted listing
+        Path baseName = Files.createFile(importFolder.resolve("00000001.jpg"));
+        Files.createFile(importFolder.resolve("00000001.tif"));
+        index.add(baseName);
+        index.add(importFolder.resolve("00000001.tif"));
+        assertEquals(baseName, index.find(names.resolve("00000001.tif"), false));
+    }
+
+    @Test
+    public void testGetStrippedNames() {
+        assertEquals(List.of("a", "a.b"), ImportFolderIndex.getStrippedNames("a.b.tif"));
+        assertEquals(List.of(), ImportFolderIndex.getStrippedNames("a"));
+    }
+}
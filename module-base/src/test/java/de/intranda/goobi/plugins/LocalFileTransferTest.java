@@ -0,0 +1,107 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalFileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCopyKeepsModificationTime() throws Exception {
+        Path source = folder.newFile("source.tif").toPath();
+        Files.write(source, new byte[] { 1, 2, 3 });
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000_000_000L));
+        Path target = folder.getRoot().toPath().resolve("target.tif");
+
+        LocalFileTransfer.copy(source, target);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(target));
+        assertEquals(Files.getLastModifiedTime(source), Files.getLastModifiedTime(target));
+        assertFalse(Files.exists(target.resolveSibling(".target.tif.tmp")));
+    }
+
+    @Test
+    public void testCopyComputesDigests() throws Exception {
+        Path source = folder.newFile("source.tif").toPath();
+        Files.write(source, "image".getBytes());
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        LocalFileTransfer.copy(source, folder.getRoot().toPath().resolve("target.tif"), digest);
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest("image".getBytes())),
+                HexFormat.of().formatHex(digest.digest()));
+    }
+
+    @Test
+    public void testPublishReplacesTarget() throws Exception {
+        Path source = folder.newFile("image.part").toPath();
+        Files.write(source, new byte[] { 4, 5 });
+        Path target = folder.newFile("image.tif").toPath();
+        Files.write(target, new byte[] { 1 });
+
+        LocalFileTransfer.publish(source, target);
+        assertArrayEquals(new byte[] { 4, 5 }, Files.readAllBytes(target));
+        assertFalse(Files.exists(source));
+    }
+
+    @Test
+    public void testHardlinkReplacesTarget() throws Exception {
+        Path source = folder.newFile("image.tif").toPath();
+        Files.write(source, new byte[] { 4, 5 });
+        File media = folder.newFolder("media");
+        Path target = media.toPath().resolve("image.tif");
+        Files.write(target, new byte[] { 1 });
+
+        assertTrue(LocalFileTransfer.hardlink(source, target));
+        assertArrayEquals(new byte[] { 4, 5 }, Files.readAllBytes(target));
+        assertEquals(1, media.list().length);
+    }
+
+    @Test
+    public void testCopyKeepsBandwidth() throws Exception {
+        Path source = folder.newFile("image.tif").toPath();
+        byte[] content = new byte[128 * 1024];
+        new Random(1).nextBytes(content);
+        Files.write(source, content);
+
+        // the bucket starts with the bytes of one second, the second half of the file has to wait for about a second
+        long start = System.nanoTime();
+        LocalFileTransfer.copy(source, folder.getRoot().toPath().resolve("target.tif"), new DownloadGovernor.TokenBucket(64 * 1024));
+        assertTrue(System.nanoTime() - start > 800_000_000L);
+        assertArrayEquals(content, Files.readAllBytes(folder.getRoot().toPath().resolve("target.tif")));
+    }
+}
@@ -0,0 +1,232 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Local stand-in for an image repository. It serves synthetic images under /images/&lt;number&gt;.jpg and can be configured to behave like a slow or
+ * unreliable server: every response is delayed, the bandwidth of each response is limited, and a share of the requests is answered with a server
+ * error, with 429 Too Many Requests or with a body that is cut off in the middle. Range requests with If-Range are supported, so that interrupted
+ * downloads can be resumed.
+ *
+ * The content of an image only depends on its number, size and version, so that the downloaded files can be compared with {@link #getImage(int)}.
+ */
+public class LocalImageServer implements Closeable {
+
+    private static final Pattern IMAGE_PATH = Pattern.compile("/images/(\\d+)\\.jpg");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+    private static final int CHUNK_SIZE = 8192;
+
+    // size of every image in bytes
+    @Getter
+    @Setter
+    private int imageSize = 64 * 1024;
+    // delay of every response in milliseconds
+    @Getter
+    @Setter
+    private long latency = 0;
+    // bytes per second of every response, 0 for no limit
+    @Getter
+    @Setter
+    private long bandwidth = 0;
+    // share of the requests that are answered with 503 Service Unavailable
+    @Getter
+    @Setter
+    private double errorRate = 0;
+    // share of the requests that are answered with 429 Too Many Requests
+    @Getter
+    @Setter
+    private double tooManyRequestsRate = 0;
+    // share of the responses whose body is cut off after half of the data
+    @Getter
+    @Setter
+    private double truncateRate = 0;
+    // version of the images, changing it changes the content and the ETag of every image
+    @Getter
+    @Setter
+    private int version = 1;
+
+    @Getter
+    private final AtomicLong requests = new AtomicLong();
+    @Getter
+    private final AtomicLong errors = new AtomicLong();
+    @Getter
+    private final AtomicLong tooManyRequests = new AtomicLong();
+    @Getter
+    private final AtomicLong truncated = new AtomicLong();
+    @Getter
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * start the server on a free port of the loopback interface
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-image-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/images/", this::handle);
+        server.start();
+    }
+
+    /**
+     * get the URL of an image
+     *
+     * @param number number of the image
+     * @return the URL
+     */
+    public String getUrl(int number) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/images/" + number + ".jpg";
+    }
+
+    /**
+     * get the content of an image
+     *
+     * @param number number of the image
+     * @return the bytes that are served for the image
+     */
+    public byte[] getImage(int number) {
+        byte[] image = new byte[imageSize];
+        new Random(number * 31L + version).nextBytes(image);
+        return image;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Matcher matcher = IMAGE_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!matcher.matches()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sleep(latency);
+
+            double random = ThreadLocalRandom.current().nextDouble();
+            if (random < errorRate) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            if (random < errorRate + tooManyRequestsRate) {
+                tooManyRequests.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+
+            byte[] image = getImage(Integer.parseInt(matcher.group(1)));
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            String etag = "\"" + matcher.group(1) + "-" + imageSize + "-" + version + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Repr-Digest", "sha-256=:" + Base64.getEncoder().encodeToString(sha256(image)) + ":");
+
+            int offset = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null && !ifRange.equals(etag)) {
+                // the image changed since the client started its partial file
+                range = null;
+            }
+            Matcher rangeMatcher = range == null ? null : RANGE.matcher(range);
+            if (rangeMatcher != null && rangeMatcher.matches() && Long.parseLong(rangeMatcher.group(1)) < image.length) {
+                offset = Integer.parseInt(rangeMatcher.group(1));
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + (image.length - 1) + "/" + image.length);
+                exchange.sendResponseHeaders(206, image.length - offset);
+            } else {
+                exchange.sendResponseHeaders(200, image.length);
+            }
+
+            int end = image.length;
+            if (ThreadLocalRandom.current().nextDouble() < truncateRate) {
+                truncated.incrementAndGet();
+                end = offset + (image.length - offset) / 2;
+            }
+            OutputStream out = exchange.getResponseBody();
+            for (int position = offset; position < end; position += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, end - position);
+                out.write(image, position, length);
+                out.flush();
+                bytesSent.addAndGet(length);
+                if (bandwidth > 0) {
+                    sleep(TimeUnit.SECONDS.toMillis(length) / bandwidth);
+                }
+            }
+        } finally {
+            // closing a response with missing bytes drops the connection, so the client sees a truncated body
+            exchange.close();
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Prefs;
+
+public class PageIndexTest {
+
+    private Prefs prefs;
+    private DigitalDocument dd;
+
+    @Before
+    public void setUp() throws Exception {
+        String resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+        prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
+        dd = new DigitalDocument();
+        dd.setLogicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("Monograph")));
+        dd.setPhysicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook")));
+    }
+
+    @Test
+    public void testFindsExactName() throws Exception {
+        DocStruct page = addPage("00000001.tif");
+        PageIndex index = new PageIndex(dd, false);
+
+        assertEquals(page, index.get("00000001.tif"));
+        assertNull(index.get("00000001"));
+    }
+
+    @Test
+    public void testFindsStrippedNames() throws Exception {
+        DocStruct page = addPage("00000001.master.tif");
+        PageIndex index = new PageIndex(dd, true);
+
+        assertEquals(page, index.get("00000001"));
+        assertEquals(page, index.get("00000001.master"));
+        assertNull(index.get("00000001.master.tif"));
+    }
+
+    @Test
+    public void testPrefersFirstPage() throws Exception {
+        DocStruct first = addPage("00000001.tif");
+        addPage("00000001.jpg");
+        PageIndex index = new PageIndex(dd, true);
+        assertEquals(first, index.get("00000001"));
+
+        // pages added later never replace the pages of the document
+        index.add(addPage("00000001.png"));
+        assertEquals(first, index.get("00000001"));
+        DocStruct added = addPage("00000002.tif");
+        index.add(added);
+        assertEquals(added, index.get("00000002"));
+    }
+
+    private DocStruct addPage(String imageName) throws Exception {
+        DocStructType pageType = prefs.getDocStrctTypeByName("page");
+        DocStruct page = dd.createDocStruct(pageType);
+        page.setImageName(imageName);
+        dd.getPhysicalDocStruct().addChild(page);
+        return page;
+    }
+}
@@ -0,0 +1,51 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+import java.io.StringReader;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+/**
+ * Creates plugin configurations for the tests, like ConfigPlugins does for a configuration file.
+ */
+public final class TestConfiguration {
+
+    private TestConfiguration() {
+    }
+
+    /**
+     * create the configuration block of the plugin
+     *
+     * @param elements the elements inside of the config element
+     * @return the configuration block
+     * @throws Exception if the elements are not valid XML
+     */
+    public static SubnodeConfiguration create(String elements) throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader("<config_plugin><config><project>*</project><step>*</step>" + elements + "</config></config_plugin>"));
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        return xmlConfig.configurationAt("config");
+    }
+}
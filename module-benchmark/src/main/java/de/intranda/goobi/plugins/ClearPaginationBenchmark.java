@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.Prefs;
+
+/**
+ * Measures the removal of the pagination when clearExistingData is set: all pages, their content files and the references of the logical structure
+ * are removed. Every invocation works on a freshly created document, so only single shot times are meaningful.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ClearPaginationBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000" })
+    private int images;
+
+    private Prefs prefs;
+    private DigitalDocument dd;
+
+    @Setup(Level.Trial)
+    public void loadPrefs() throws Exception {
+        prefs = SyntheticDocuments.loadPrefs();
+    }
+
+    @Setup(Level.Invocation)
+    public void createDocument() throws Exception {
+        dd = SyntheticDocuments.createDocument(prefs, images, Paths.get("/opt/digiverso/goobi/metadata/1/images/benchmark_media"));
+    }
+
+    @Benchmark
+    public DigitalDocument clearPagination() {
+        FetchImagesFromMetadataStepPlugin.clearPagination(dd);
+        return dd;
+    }
+}
@@ -0,0 +1,89 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+
+/**
+ * Measures how getExistingPage finds the page of an image that was imported before. The index of the pages is compared with a scan over all pages
+ * of the document, which is how pages were found before the index existed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExistingPageLookupBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000" })
+    private int images;
+
+    private DigitalDocument dd;
+    private PageIndex pageIndex;
+    private List<String> names;
+
+    @Setup
+    public void setup() throws Exception {
+        Path imageFolder = Paths.get("/opt/digiverso/goobi/metadata/1/images/benchmark_media");
+        dd = SyntheticDocuments.createDocument(SyntheticDocuments.loadPrefs(), images, imageFolder);
+        pageIndex = new PageIndex(dd, false);
+        names = SyntheticDocuments.getImageNames(images);
+    }
+
+    private String nextImageName() {
+        return names.get(ThreadLocalRandom.current().nextInt(images)).replace(" ", "_");
+    }
+
+    @Benchmark
+    public DocStruct pageIndex() {
+        return pageIndex.get(nextImageName());
+    }
+
+    @Benchmark
+    public DocStruct scanPages() {
+        // the regular expression that getExistingPage compiled again for every page before
+        String regex = "\\Q" + nextImageName() + "\\E";
+        for (DocStruct page : dd.getAllDocStructsByType("page")) {
+            if (page.getImageName().matches(regex)) {
+                return page;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lookup of an image in the import folder as it is done by getMatchedImageFile: the image name from the metadata is resolved and
+ * searched in the index of the folder. The folder contains one empty file per image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FolderMatchingBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000" })
+    private int images;
+
+    @Param({ "false", "true" })
+    private boolean ignoreFileExtension;
+
+    private Path folder;
+    private ImportFolderIndex folderIndex;
+    private List<String> names;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = SyntheticDocuments.createImageFolder(images);
+        folderIndex = ImportFolderIndex.getInstance(folder.toString());
+        names = SyntheticDocuments.getImageNames(images);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticDocuments.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public Path matchImage() {
+        // a new matcher per lookup, so that the cache of resolved names does not hide the cost of resolving a name
+        ImageNameMatcher matcher = new ImageNameMatcher(".tif", ignoreFileExtension);
+        String name = names.get(ThreadLocalRandom.current().nextInt(images));
+        return folderIndex.find(matcher.resolve(ignoreFileExtension ? name.substring(0, name.lastIndexOf('.')) : name), ignoreFileExtension);
+    }
+}
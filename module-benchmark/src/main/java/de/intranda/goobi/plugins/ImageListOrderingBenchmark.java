@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the ordering of the image names that is done by getImageNamesList before any image is imported: the image that starts with the
+ * inventory number and the serial number is moved to the front and all others are sorted by name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageListOrderingBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000" })
+    private int images;
+
+    private List<String> names;
+    private String firstImageName;
+
+    @Setup
+    public void setup() {
+        names = SyntheticDocuments.getImageNames(images);
+        // the first image is somewhere in the middle of the list
+        firstImageName = SyntheticDocuments.INVENTORY_NUMBER + " Nr_" + String.format("%06d", images / 2 + 1);
+    }
+
+    @Benchmark
+    public List<String> sortImageNames() {
+        // the list is changed by the sort, so every invocation gets its own copy
+        return FetchImagesFromMetadataStepPlugin.sortImageNames(new ArrayList<>(names), firstImageName);
+    }
+}
@@ -0,0 +1,165 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ugh.dl.ContentFile;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.FileSet;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+
+/**
+ * Creates the synthetic documents and folders the benchmarks work on. Image names follow the pattern of the images that are imported by the plugin,
+ * e.g. "1234 Nr_00042.tif".
+ */
+final class SyntheticDocuments {
+
+    static final String INVENTORY_NUMBER = "1234";
+
+    private SyntheticDocuments() {
+    }
+
+    /**
+     * get the name of an image
+     *
+     * @param number number of the image
+     * @param extension file extension without dot
+     * @return the image name
+     */
+    static String getImageName(int number, String extension) {
+        return String.format("%s Nr_%06d.%s", INVENTORY_NUMBER, number, extension);
+    }
+
+    /**
+     * get the image names in the order they are listed in the metadata of a process, which is not the sorted order
+     *
+     * @param count number of images
+     * @return the image names
+     */
+    static List<String> getImageNames(int count) {
+        List<String> names = new ArrayList<>(count);
+        // interleave the second half with the first half so that the list needs to be sorted
+        int half = (count + 1) / 2;
+        for (int i = 0; i < half; i++) {
+            names.add(getImageName(half + i + 1, "tif"));
+            names.add(getImageName(i + 1, "tif"));
+        }
+        return names.subList(0, count);
+    }
+
+    /**
+     * load the ruleset of the tests, which is packaged with the benchmarks
+     *
+     * @return the ruleset
+     * @throws IOException
+     * @throws UGHException
+     */
+    static Prefs loadPrefs() throws IOException, UGHException {
+        Path ruleset = Files.createTempFile("benchmark-ruleset", ".xml");
+        try (InputStream in = SyntheticDocuments.class.getResourceAsStream("/ruleset.xml")) {
+            Files.copy(in, ruleset, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(ruleset.toString());
+        Files.delete(ruleset);
+        return prefs;
+    }
+
+    /**
+     * create a monograph with one page per image, each page is linked to the monograph and has a content file
+     *
+     * @param prefs ruleset
+     * @param count number of pages
+     * @param imageFolder folder the content files point to
+     * @return the document
+     * @throws UGHException
+     */
+    static DigitalDocument createDocument(Prefs prefs, int count, Path imageFolder) throws UGHException {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct logical = dd.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        DocStruct physical = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        dd.setLogicalDocStruct(logical);
+        dd.setPhysicalDocStruct(physical);
+        FileSet fileSet = new FileSet();
+        dd.setFileSet(fileSet);
+
+        for (int i = 1; i <= count; i++) {
+            String imageName = getImageName(i, "tif");
+            DocStruct page = dd.createDocStruct(prefs.getDocStrctTypeByName("page"));
+
+            Metadata physPage = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
+            physPage.setValue(String.valueOf(i));
+            page.addMetadata(physPage);
+
+            Metadata logPage = new Metadata(prefs.getMetadataTypeByName("logicalPageNumber"));
+            logPage.setValue(imageName.replace(" ", "_"));
+            page.addMetadata(logPage);
+
+            ContentFile cf = new ContentFile();
+            cf.setLocation("file:/" + imageFolder.resolve(imageName.replace(" ", "_")));
+            page.addContentFile(cf);
+            fileSet.addFile(cf);
+            page.setImageName(imageName.replace(" ", "_"));
+
+            physical.addChild(page);
+            logical.addReferenceTo(page, "logical_physical");
+        }
+        return dd;
+    }
+
+    /**
+     * create a folder that contains an empty file for every image
+     *
+     * @param count number of images
+     * @return the folder
+     * @throws IOException
+     */
+    static Path createImageFolder(int count) throws IOException {
+        Path folder = Files.createTempDirectory("benchmark-images");
+        for (int i = 1; i <= count; i++) {
+            Files.createFile(folder.resolve(getImageName(i, "tif")));
+        }
+        return folder;
+    }
+
+    /**
+     * delete a folder created by {@link #createImageFolder(int)}
+     *
+     * @param folder the folder
+     * @throws IOException
+     */
+    static void deleteFolder(Path folder) throws IOException {
+        try (var files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(folder);
+    }
+}